@@ -0,0 +1,98 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue microbenchmark: the {@link RingBufferMessageQueue} operations behind queueing a message while an
+ * undobar is on screen and advancing to the next one on hide, under each capacity, budget and overflow policy.
+ * UndoBar.show() and hideUndoBar() themselves need a device and are not run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageQueueBenchmark {
+
+    private static final int BURST = 1024;
+
+    /**
+     * Queue capacity, 0 for the default unbounded queue
+     */
+    @Param({"0", "64"})
+    public int capacity;
+
+    /**
+     * Memory budget in bytes, 0 for none
+     */
+    @Param({"0", "16384"})
+    public long budget;
+
+    @Param({"DROP_OLDEST", "DROP_NEWEST", "COLLAPSE_INTO_LATEST"})
+    public OverflowPolicy policy;
+
+    private QueuedMessage[] burst;
+    private MessageQueue<QueuedMessage> queue;
+    private MessageQueue<QueuedMessage> steady;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        burst = QueuedMessage.create(BURST);
+        queue = new RingBufferMessageQueue<>(capacity, policy, budget, QueuedMessage.WEIGHER, null);
+        steady = new RingBufferMessageQueue<>(capacity, policy, budget, QueuedMessage.WEIGHER, null);
+        for (int i = 0; i < 32; i++) {
+            steady.offer(burst[i]);
+        }
+    }
+
+    /**
+     * A burst of show() calls while a bar is on screen.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void enqueueBurst() {
+        for (QueuedMessage message : burst) {
+            queue.offer(message);
+        }
+        queue.clear();
+    }
+
+    /**
+     * hideUndoBar() taking the next message while new ones keep arriving.
+     */
+    @Benchmark
+    public QueuedMessage dequeueAndAdvance() {
+        final QueuedMessage head = steady.poll();
+        steady.offer(burst[next]);
+        next = (next + 1) & (BURST - 1);
+        return head;
+    }
+
+    /**
+     * Dropping messages through the listener, as the controller does to report them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void overflowWithDropListener(final Blackhole blackhole) {
+        final MessageQueue<QueuedMessage> bounded = new RingBufferMessageQueue<>(capacity > 0 ? capacity : 64, policy,
+                budget, QueuedMessage.WEIGHER, new MessageQueue.OnDropListener<QueuedMessage>() {
+            @Override
+            public void onDropped(QueuedMessage message) {
+                blackhole.consume(message.token);
+            }
+        });
+        for (QueuedMessage message : burst) {
+            bounded.offer(message);
+        }
+    }
+}
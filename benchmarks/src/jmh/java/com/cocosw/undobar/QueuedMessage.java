@@ -0,0 +1,33 @@
+package com.cocosw.undobar;
+
+/**
+ * Stand-in for the controller's message, carrying the fields the queue looks at.
+ */
+final class QueuedMessage {
+
+    static final MessageQueue.Weigher<QueuedMessage> WEIGHER = new MessageQueue.Weigher<QueuedMessage>() {
+        @Override
+        public long weigh(QueuedMessage message) {
+            // Same estimate as UndoBarController, with the token already parcelled
+            return 96 + 2L * message.message.length() + message.tokenBytes;
+        }
+    };
+
+    final CharSequence message;
+    final Object token;
+    final int tokenBytes;
+
+    QueuedMessage(CharSequence message, Object token, int tokenBytes) {
+        this.message = message;
+        this.token = token;
+        this.tokenBytes = tokenBytes;
+    }
+
+    static QueuedMessage[] create(int count) {
+        final QueuedMessage[] messages = new QueuedMessage[count];
+        for (int i = 0; i < count; i++) {
+            messages[i] = new QueuedMessage("Item " + i + " was deleted", i, 48);
+        }
+        return messages;
+    }
+}
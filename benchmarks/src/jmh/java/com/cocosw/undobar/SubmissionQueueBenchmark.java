@@ -0,0 +1,43 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UndoBar.post() from several worker threads while the main thread drains the submissions.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubmissionQueueBenchmark {
+
+    private final SubmissionQueue<Object> queue = new SubmissionQueue<>();
+    private final Object submission = new Object();
+
+    @Benchmark
+    @Group("post")
+    @GroupThreads(3)
+    public boolean workers() {
+        return queue.offer(submission);
+    }
+
+    @Benchmark
+    @Group("post")
+    @GroupThreads(1)
+    public int mainThread() {
+        queue.beginDrain();
+        int drained = 0;
+        while (queue.poll() != null) {
+            drained++;
+        }
+        return drained;
+    }
+}
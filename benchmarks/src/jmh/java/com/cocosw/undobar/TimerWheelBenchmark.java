@@ -0,0 +1,81 @@
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the hide timers: rescheduling on every show and hide, and firing a batch of expiries
+ * at one frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerWheelBenchmark {
+
+    private static final int BATCH = 256;
+
+    /**
+     * Number of other undobars with a pending deadline
+     */
+    @Param({"1", "100", "10000"})
+    public int pending;
+
+    private TimerWheel wheel;
+    private TimerWheel.Timeout timeout;
+    private TimerWheel.Timeout[] batch;
+    private long now;
+    private int fired;
+
+    @Setup
+    public void setUp() {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                fired++;
+            }
+        };
+        wheel = new TimerWheel(256, 16);
+        now = 0;
+        for (int i = 0; i < pending; i++) {
+            // Far enough out not to expire while the benchmark advances the clock
+            wheel.schedule(new TimerWheel.Timeout(task), now, Long.MAX_VALUE / 4 + i);
+        }
+        timeout = new TimerWheel.Timeout(task);
+        batch = new TimerWheel.Timeout[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            batch[i] = new TimerWheel.Timeout(task);
+        }
+    }
+
+    /**
+     * showUndoBar() rescheduling its deadline, hideUndoBar() cancelling it.
+     */
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        wheel.schedule(timeout, now, 5000);
+        wheel.cancel(timeout);
+        return timeout.isScheduled();
+    }
+
+    /**
+     * A burst of undobars expiring on the same frame.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int fireBatch() {
+        now += 16;
+        for (TimerWheel.Timeout t : batch) {
+            wheel.schedule(t, now, 5);
+        }
+        return wheel.advance(now + 16);
+    }
+}
@@ -14,6 +14,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.view.MenuItemCompat;
 
+import com.cocosw.undobar.TokenHandle;
 import com.cocosw.undobar.UndoBarController;
 
 import java.util.Arrays;
@@ -64,8 +65,8 @@ public class UndoStyle extends AppCompatActivity implements UndoBarController.Ad
 
     @Override
     public void onUndo(final Parcelable token) {
-        if (token != null) {
-            final int position = ((Bundle) token).getInt("index");
+        final Integer position = ((TokenHandle) token).get();
+        if (position != null) {
             Toast.makeText(this, "undo clicked, index " + position,
                     Toast.LENGTH_SHORT).show();
         }
@@ -73,8 +74,8 @@ public class UndoStyle extends AppCompatActivity implements UndoBarController.Ad
 
     @Override
     public void onHide(Parcelable token) {
-        if (token != null) {
-            final int position = ((Bundle) token).getInt("index");
+        final Integer position = ((TokenHandle) token).get();
+        if (position != null) {
             Toast.makeText(this, "UndoBar hided! index " + position,
                     Toast.LENGTH_SHORT).show();
         }
@@ -83,7 +84,7 @@ public class UndoStyle extends AppCompatActivity implements UndoBarController.Ad
     @Override
     public void onClear(@Nullable Parcelable[] tokens) {
         for (Parcelable token : tokens) {
-            final int position = ((Bundle) token).getInt("index");
+            final Integer position = ((TokenHandle) token).get();
             Toast.makeText(this.getApplicationContext(), "UndoBar cleared! index " + position,
                     Toast.LENGTH_SHORT).show();
         }
@@ -91,10 +92,7 @@ public class UndoStyle extends AppCompatActivity implements UndoBarController.Ad
 
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        final Bundle b = new Bundle();
-        b.putInt("index", position);
-
         new UndoBarController.UndoBar(this).message(mAdapter.getItem(position)
-                + " was selected").listener(this).token(b).show();
+                + " was selected").listener(this).payload(position).show();
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link UndoBarController.UndoBar#clear()} with a backlog of waiting messages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+public class ClearBenchmark {
+
+    /**
+     * Messages shown before the clear, one on screen and the rest waiting
+     */
+    @Param({"10", "1000", "100000"})
+    public int messages;
+
+    private UndoBarController.UndoBar builder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        builder = new UndoBarController.UndoBar(ControllerBenchmarks.newActivity())
+                .style(UndoBarController.UNDOSTYLE);
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        for (int i = 0; i < messages; i++) {
+            builder.message("Deleted").show(false);
+        }
+    }
+
+    @Benchmark
+    public void clear() {
+        builder.clear();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.view.View;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the JMH benchmarks of the controller paths on the Robolectric main thread.
+ * <p>
+ * Skipped by the normal test run, pass the benchmarks property to run them:
+ * <pre>
+ *     ./gradlew :library:testDebugUnitTest -Pbenchmarks --tests com.cocosw.undobar.ControllerBenchmarks
+ * </pre>
+ * The numbers are JVM numbers, Parcel and the views are Robolectric's, so they track the
+ * library's own cost across releases rather than the cost on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ControllerBenchmarks {
+
+    @Test
+    public void run() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("undobar.benchmarks"));
+        // Views may only be touched from the thread running the test, so no forks and no worker threads
+        System.setProperty("jmh.executor", "CUSTOM");
+        System.setProperty("jmh.executor.class", InlineExecutor.class.getName());
+        final OptionsBuilder options = new OptionsBuilder();
+        options.include(ControllerBenchmarks.class.getPackage().getName() + ".*Benchmark")
+                .forks(0)
+                .shouldFailOnError(true);
+        final String results = System.getProperty("undobar.benchmarks.results");
+        if (results != null) {
+            new File(results).getParentFile().mkdirs();
+            options.resultFormat(ResultFormatType.JSON).result(results);
+        }
+        new Runner(options.build()).run();
+    }
+
+    static Activity newActivity() {
+        ControllerPool.clear();
+        return Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    static View button(UndoBarController bar) {
+        return bar.findViewById(R.id.undobar_button);
+    }
+
+    /**
+     * Runs the benchmark threads of JMH on the caller
+     */
+    public static class InlineExecutor extends AbstractExecutorService {
+
+        private boolean shutdown;
+
+        public InlineExecutor(int threads, String prefix) {
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import android.view.View;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of hideUndoBar() handing the undobar to the next waiting message, through the real
+ * controller and layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+public class HideBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private UndoBarController.UndoBar builder;
+    private View button;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        builder = new UndoBarController.UndoBar(ControllerBenchmarks.newActivity())
+                .style(UndoBarController.UNDOSTYLE);
+    }
+
+    @Setup(Level.Iteration)
+    public void fill() {
+        UndoBarController bar = null;
+        for (int i = 0; i <= BATCH; i++) {
+            bar = builder.message("Deleted").show(false);
+        }
+        button = ControllerBenchmarks.button(bar);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clear() {
+        builder.clear();
+    }
+
+    /**
+     * Undo on screen, the next waiting message takes its place.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void hideAndAdvance() {
+        for (int i = 0; i < BATCH; i++) {
+            button.callOnClick();
+        }
+    }
+}
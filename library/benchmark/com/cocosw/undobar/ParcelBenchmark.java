@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parcel round trips of {@link UndoBarStyle} and of the undobar messages, the latter through the
+ * saved state of the real controller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+public class ParcelBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private Parcel parcel;
+
+    @Setup(Level.Iteration)
+    public void obtain() {
+        parcel = Parcel.obtain();
+    }
+
+    @TearDown(Level.Iteration)
+    public void recycle() {
+        parcel.recycle();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void style(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            parcel.setDataPosition(0);
+            UndoBarController.UNDOSTYLE.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            blackhole.consume(UndoBarStyle.CREATOR.createFromParcel(parcel));
+        }
+    }
+
+    /**
+     * Saving the messages across a configuration change and restoring them on the new undobar.
+     */
+    @Benchmark
+    public UndoBarController savedState(SavedState state) {
+        parcel.setDataPosition(0);
+        parcel.writeBundle((Bundle) state.bar.onSaveInstanceState());
+        parcel.setDataPosition(0);
+        state.restored.onRestoreInstanceState(parcel.readBundle(UndoBarController.class.getClassLoader()));
+        return state.restored;
+    }
+
+    @State(Scope.Thread)
+    public static class SavedState {
+
+        /**
+         * Messages in the saved state, one on screen and the rest waiting
+         */
+        @Param({"1", "100", "1000"})
+        public int messages;
+
+        private UndoBarController.UndoBar builder;
+        private UndoBarController bar;
+        private UndoBarController restored;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            builder = new UndoBarController.UndoBar(ControllerBenchmarks.newActivity())
+                    .style(UndoBarController.UNDOSTYLE);
+            for (int i = 0; i < messages; i++) {
+                final Bundle token = new Bundle();
+                token.putInt("position", i);
+                bar = builder.message("Deleted").token(token).show(false);
+            }
+            // Keeps the messages in the Bundle instead of spilling them to a file
+            bar.setSavedStateLimit(Integer.MAX_VALUE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            builder.clear();
+        }
+
+        @Setup(Level.Iteration)
+        public void newUndoBar() {
+            restored = new UndoBarController(bar.getContext(), null);
+        }
+    }
+}
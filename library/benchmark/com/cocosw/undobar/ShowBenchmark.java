@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import android.app.Activity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link UndoBarController.UndoBar#show()} and of the hide that follows it, through
+ * the real controller and layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+public class ShowBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private Activity activity;
+    private UndoBarController.UndoBar builder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        activity = ControllerBenchmarks.newActivity();
+        builder = new UndoBarController.UndoBar(activity).style(UndoBarController.UNDOSTYLE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clear() {
+        builder.clear();
+    }
+
+    /**
+     * A message queued behind the one on screen.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public UndoBarController showQueued() {
+        UndoBarController bar = null;
+        for (int i = 0; i < BATCH; i++) {
+            bar = builder.message("Deleted").show(false);
+        }
+        return bar;
+    }
+
+    /**
+     * A message shown on an empty undobar and undone, leaving it empty again.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public UndoBarController showAndHide() {
+        UndoBarController bar = null;
+        for (int i = 0; i < BATCH; i++) {
+            bar = builder.message("Deleted").show(false);
+            ControllerBenchmarks.button(bar).callOnClick();
+        }
+        return bar;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+
+import androidx.annotation.AnimRes;
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parsed undobar animations, shared by every undobar in the process.
+ * <p>
+ * Definitions are keyed by the undobar theme style and the animation resource. Callers get
+ * a clone of the definition, so each undobar can set its own listener and timing without
+ * parsing the XML again.
+ */
+final class AnimationCache {
+
+    private static final Map<Long, Animation> sDefinitions = new HashMap<>();
+    private static Method sClone;
+    private static boolean sCloneUnavailable;
+
+    private AnimationCache() {
+    }
+
+    /**
+     * @param themeStyle the undoBarStyle resolved from the context theme
+     * @param animRes    animation resource, as resolved from that style
+     */
+    @NonNull
+    static Animation get(@NonNull Context context, int themeStyle, @AnimRes int animRes) {
+        final long key = ((long) themeStyle << 32) | (animRes & 0xFFFFFFFFL);
+        Animation definition;
+        synchronized (sDefinitions) {
+            definition = sDefinitions.get(key);
+        }
+        if (definition == null) {
+            definition = AnimationUtils.loadAnimation(context, animRes);
+            synchronized (sDefinitions) {
+                sDefinitions.put(key, definition);
+            }
+        }
+        final Animation copy = copy(definition);
+        return copy != null ? copy : AnimationUtils.loadAnimation(context, animRes);
+    }
+
+    /**
+     * A copy of an animation the app created, so that several undobars can run it at once with their own
+     * listener. The animation itself if it cannot be copied.
+     */
+    @NonNull
+    static Animation copyOf(@NonNull Animation animation) {
+        final Animation copy = copy(animation);
+        return copy != null ? copy : animation;
+    }
+
+    /**
+     * Drop every definition, e.g. when the configuration changes and resources may resolve differently
+     */
+    static void clear() {
+        synchronized (sDefinitions) {
+            sDefinitions.clear();
+        }
+    }
+
+    /**
+     * Animation.clone() is protected, it deep copies animation sets and shares the interpolators
+     */
+    private static Animation copy(Animation definition) {
+        synchronized (sDefinitions) {
+            if (sCloneUnavailable)
+                return null;
+            try {
+                if (sClone == null) {
+                    sClone = Animation.class.getDeclaredMethod("clone");
+                    sClone.setAccessible(true);
+                }
+                return (Animation) sClone.invoke(definition);
+            } catch (Exception e) {
+                sCloneUnavailable = true;
+                return null;
+            }
+        }
+    }
+}
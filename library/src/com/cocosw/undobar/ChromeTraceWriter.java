@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link UndoBarTracer} writing sections as Chrome trace events in the JSON array format, e.g. from
+ * JVM or Robolectric test runs. Open the file in Perfetto UI or chrome://tracing to compare runs.
+ * <p>
+ * Only depends on the JDK. Write errors are kept until {@link #close()}, which rethrows the first one.
+ */
+public final class ChromeTraceWriter implements UndoBarTracer, Closeable {
+
+    private final Writer writer;
+    private final long origin = System.nanoTime();
+    private boolean first = true;
+    private boolean closed;
+    private IOException error;
+
+    public ChromeTraceWriter(@NonNull File file) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    public ChromeTraceWriter(@NonNull Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        write("[");
+    }
+
+    @Override
+    public void beginSection(@NonNull String name) {
+        event(name, 'B');
+    }
+
+    @Override
+    public void endSection() {
+        event(null, 'E');
+    }
+
+    private synchronized void event(String name, char phase) {
+        if (closed)
+            return;
+        final long micros = (System.nanoTime() - origin) / 1000;
+        final StringBuilder sb = new StringBuilder(96);
+        sb.append(first ? "\n" : ",\n");
+        first = false;
+        sb.append("{\"ph\":\"").append(phase).append('"');
+        if (name != null) {
+            sb.append(",\"name\":\"");
+            escape(sb, name);
+            sb.append("\",\"cat\":\"undobar\"");
+        }
+        sb.append(",\"ts\":").append(micros)
+                .append(",\"pid\":1,\"tid\":").append(Thread.currentThread().getId())
+                .append('}');
+        write(sb.toString());
+    }
+
+    private void write(String s) {
+        if (error != null)
+            return;
+        try {
+            writer.write(s);
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    private static void escape(StringBuilder sb, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Terminate the JSON array and close the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        write("\n]\n");
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            if (error == null)
+                error = e;
+        }
+        if (error != null)
+            throw error;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Idle undobars of destroyed activities, handed to the next activity with the same undobar style and
+ * configuration instead of inflating a new one.
+ * <p>
+ * Pooled undobars are built on a copy of the first borrowing activity's theme over the application context,
+ * so they hold no activity. {@link ControllerRegistry} releases them when their activity is destroyed;
+ * undobars still showing or holding messages then are not pooled. The pool is trimmed from the application's
+ * trim memory callbacks. Main thread only.
+ */
+final class ControllerPool {
+
+    private static final int MAX_POOLED = 4;
+
+    // Oldest first
+    private static final ArrayList<Entry> sPool = new ArrayList<>(MAX_POOLED);
+    private static final WeakHashMap<Activity, Entry> sBorrowed = new WeakHashMap<>();
+    private static boolean sCallbacksRegistered;
+
+    private ControllerPool() {
+    }
+
+    /**
+     * A detached undobar for the activity, pooled or new
+     */
+    static UndoBarController acquire(@NonNull Activity activity) {
+        registerCallbacks(activity);
+        final TypedArray ta = activity.getTheme().obtainStyledAttributes(new int[]{R.attr.undoBarStyle});
+        final int style = ta.getResourceId(0, R.style.UndoBarDefaultStyle);
+        ta.recycle();
+        final Configuration configuration = activity.getResources().getConfiguration();
+        Entry entry = null;
+        for (int i = sPool.size() - 1; i >= 0; i--) {
+            final Entry pooled = sPool.get(i);
+            if (pooled.style == style && pooled.configuration.equals(configuration)) {
+                entry = sPool.remove(i);
+                break;
+            }
+        }
+        if (entry == null) {
+            final ContextThemeWrapper context = new ContextThemeWrapper(activity.getApplicationContext(), 0);
+            context.applyOverrideConfiguration(configuration);
+            context.getTheme().setTo(activity.getTheme());
+            // Keeps the activity's inflater factories, e.g. AppCompat widgets
+            final LayoutInflater inflater = LayoutInflater.from(activity).cloneInContext(context);
+            entry = new Entry(style, new Configuration(configuration), new UndoBarController(context, null, inflater));
+        }
+        sBorrowed.put(activity, entry);
+        return entry.controller;
+    }
+
+    static void clear() {
+        sPool.clear();
+    }
+
+    /**
+     * Take back the undobar the destroyed activity borrowed, if it is idle
+     */
+    static void release(Activity activity) {
+        final Entry entry = sBorrowed.remove(activity);
+        if (entry == null || !entry.controller.resetForPool())
+            return;
+        if (sPool.size() == MAX_POOLED)
+            sPool.remove(0);
+        sPool.add(entry);
+    }
+
+    private static void registerCallbacks(Activity activity) {
+        if (sCallbacksRegistered)
+            return;
+        sCallbacksRegistered = true;
+        activity.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    clear();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+
+    private static final class Entry {
+        private final int style;
+        private final Configuration configuration;
+        private final UndoBarController controller;
+
+        private Entry(int style, Configuration configuration, UndoBarController controller) {
+            this.style = style;
+            this.configuration = configuration;
+            this.controller = controller;
+        }
+    }
+}
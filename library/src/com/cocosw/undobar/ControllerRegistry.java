@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import androidx.annotation.IdRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * The undobar of each activity and container, found in constant time instead of searching the view tree.
+ * <p>
+ * Activities and undobars are weakly referenced. When an activity is destroyed its undobars are unbound, so no
+ * timer or listener keeps it alive, its entries are removed and its undobar goes back to the
+ * {@link ControllerPool}. Main thread only.
+ */
+final class ControllerRegistry {
+
+    private static final WeakHashMap<Activity, SparseArray<WeakReference<UndoBarController>>> sControllers =
+            new WeakHashMap<>();
+    // Application the lifecycle callbacks are registered with
+    private static Application sApplication;
+
+    private ControllerRegistry() {
+    }
+
+    /**
+     * The undobar attached to the container of the activity, or null
+     */
+    @Nullable
+    static UndoBarController get(@NonNull Activity activity, @IdRes int container) {
+        final SparseArray<WeakReference<UndoBarController>> controllers = sControllers.get(activity);
+        if (controllers == null)
+            return null;
+        final WeakReference<UndoBarController> ref = controllers.get(container);
+        final UndoBarController controller = ref != null ? ref.get() : null;
+        if (controller == null || controller.getParent() == null) {
+            // Collected, or removed from the view tree by the app
+            controllers.remove(container);
+            return null;
+        }
+        return controller;
+    }
+
+    /**
+     * Any undobar of the activity, or null
+     */
+    @Nullable
+    static UndoBarController any(@NonNull Activity activity) {
+        final SparseArray<WeakReference<UndoBarController>> controllers = sControllers.get(activity);
+        if (controllers == null)
+            return null;
+        // Backwards, as get() removes stale entries
+        for (int i = controllers.size() - 1; i >= 0; i--) {
+            final UndoBarController controller = get(activity, controllers.keyAt(i));
+            if (controller != null)
+                return controller;
+        }
+        return null;
+    }
+
+    static void put(@NonNull Activity activity, @IdRes int container, @NonNull UndoBarController controller) {
+        registerCallbacks(activity);
+        SparseArray<WeakReference<UndoBarController>> controllers = sControllers.get(activity);
+        if (controllers == null) {
+            controllers = new SparseArray<>(1);
+            sControllers.put(activity, controllers);
+        }
+        controllers.put(container, new WeakReference<>(controller));
+    }
+
+    private static void registerCallbacks(Activity activity) {
+        final Application application = activity.getApplication();
+        if (application == sApplication)
+            return;
+        sApplication = application;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {
+
+            }
+
+            @Override
+            public void onActivityStarted(@NonNull Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityResumed(@NonNull Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityPaused(@NonNull Activity activity) {
+
+            }
+
+            @Override
+            public void onActivityStopped(@NonNull Activity activity) {
+
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+
+            }
+
+            @Override
+            public void onActivityDestroyed(@NonNull Activity activity) {
+                final SparseArray<WeakReference<UndoBarController>> controllers = sControllers.remove(activity);
+                if (controllers != null) {
+                    for (int i = 0; i < controllers.size(); i++) {
+                        final UndoBarController controller = controllers.valueAt(i).get();
+                        if (controller != null)
+                            controller.unbind(activity);
+                    }
+                }
+                ControllerPool.release(activity);
+            }
+        });
+    }
+}
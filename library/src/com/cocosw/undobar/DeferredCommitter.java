@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Commits the operations behind undobars once they can no longer be undone.
+ * <p>
+ * Attach an operation to an undobar with {@link UndoBarController.UndoBar#commit(DeferredCommitter, Object)}.
+ * An undone operation is dropped. Once its undobar hides, is cleared or is dropped from a full queue,
+ * the operation is staged here and compacted with the staged operations on the same key.
+ * Staged operations are handed to the {@link Store} in batches on the executor, one batch after another,
+ * once the flush delay has passed or a full batch is waiting.
+ * <p>
+ * Operations live in memory only and are not kept with the saved instance state.
+ */
+public final class DeferredCommitter<T> {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+    public static final long DEFAULT_FLUSH_DELAY = 300;
+
+    public interface Store<T> {
+        /**
+         * Key of the record an operation touches. Operations on the same key are compacted,
+         * operations with a null key never are.
+         */
+        Object keyOf(@NonNull T operation);
+
+        /**
+         * Compact two staged operations on the same key, e.g. return later for two updates
+         * or null for an insert followed by a delete.
+         *
+         * @return the net operation, or null if nothing is left to commit
+         */
+        T compact(@NonNull T earlier, @NonNull T later);
+
+        /**
+         * Commit a batch of operations, in staging order. Called on the executor, never concurrently.
+         */
+        void commit(@NonNull List<T> batch);
+    }
+
+    private final Store<T> store;
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final long flushDelay;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Main thread only
+    private final LinkedHashMap<Object, T> staged = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    private final Object lock = new Object();
+    // Guarded by lock
+    private final ArrayDeque<List<T>> batches = new ArrayDeque<>();
+    private boolean committing;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    private final Runnable commitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final List<T> batch;
+                synchronized (lock) {
+                    batch = batches.poll();
+                    if (batch == null) {
+                        committing = false;
+                        return;
+                    }
+                }
+                try {
+                    store.commit(batch);
+                } catch (RuntimeException e) {
+                    // Let the remaining batches go on before reporting the failure
+                    synchronized (lock) {
+                        if (batches.isEmpty())
+                            committing = false;
+                        else
+                            executor.execute(this);
+                    }
+                    throw e;
+                }
+            }
+        }
+    };
+
+    public DeferredCommitter(@NonNull Store<T> store, @NonNull Executor executor) {
+        this(store, executor, DEFAULT_MAX_BATCH_SIZE, DEFAULT_FLUSH_DELAY);
+    }
+
+    /**
+     * @param maxBatchSize most operations handed to {@link Store#commit(List)} at once
+     * @param flushDelay   time in ms staged operations wait for more to batch with
+     */
+    public DeferredCommitter(@NonNull Store<T> store, @NonNull Executor executor, int maxBatchSize,
+                             long flushDelay) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize <= 0: " + maxBatchSize);
+        this.store = store;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Stage an operation that can no longer be undone, on the main thread.
+     */
+    @SuppressWarnings("unchecked")
+    void stage(Object operation) {
+        final T op = (T) operation;
+        Object key = store.keyOf(op);
+        if (key == null) {
+            // Unique key, never compacted
+            key = new Object();
+        } else {
+            final T earlier = staged.get(key);
+            if (earlier != null) {
+                final T net = store.compact(earlier, op);
+                if (net == null) {
+                    staged.remove(key);
+                    return;
+                }
+                // Replaced in place, keeping its staging order
+                staged.put(key, net);
+                scheduleFlush();
+                return;
+            }
+        }
+        staged.put(key, op);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (staged.size() >= maxBatchSize) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, flushDelay);
+        }
+    }
+
+    /**
+     * Hand every staged operation to the executor now, e.g. when the app goes to the background.
+     * Must be called on the main thread.
+     */
+    public void flush() {
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        if (staged.isEmpty())
+            return;
+        final boolean start;
+        synchronized (lock) {
+            final Iterator<T> it = staged.values().iterator();
+            while (it.hasNext()) {
+                final List<T> batch = new ArrayList<>(Math.min(maxBatchSize, staged.size()));
+                while (it.hasNext() && batch.size() < maxBatchSize) {
+                    batch.add(it.next());
+                }
+                batches.add(batch);
+            }
+            start = !committing;
+            committing = true;
+        }
+        staged.clear();
+        if (start)
+            executor.execute(commitRunnable);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.DisplayMetrics;
+import android.view.ViewConfiguration;
+import android.view.WindowManager;
+
+import java.lang.reflect.Method;
+
+/**
+ * Navigation bar facts about the device, shared by every undobar in the process.
+ * <p>
+ * Built lazily on first use and rebuilt only when the configuration changes, so undobars
+ * created in new activities do not repeat the reflection and display metrics lookups.
+ * https://github.com/jgilfelt/SystemBarTint/blob/master/library/src/com/readystatesoftware/systembartint/SystemBarTintManager.java
+ */
+final class DeviceProfile {
+
+    private static final String NAV_BAR_HEIGHT_RES_NAME = "navigation_bar_height";
+    private static final String NAV_BAR_HEIGHT_LANDSCAPE_RES_NAME = "navigation_bar_height_landscape";
+    private static final String SHOW_NAV_BAR_RES_NAME = "config_showNavigationBar";
+
+    private static final Object sLock = new Object();
+    private static DeviceProfile sProfile;
+    // System property, fixed for the lifetime of the process
+    private static String sNavBarOverride;
+    private static boolean sNavBarOverrideLoaded;
+
+    private final Configuration configuration;
+    final boolean inPortrait;
+    final float smallestWidthDp;
+    final boolean hasNavBar;
+    /**
+     * Height of the navigation bar when it is at the bottom of the screen, 0 otherwise
+     */
+    final int navigationBarHeight;
+
+    private DeviceProfile(Context context, Configuration configuration) {
+        this.configuration = new Configuration(configuration);
+        inPortrait = configuration.orientation == Configuration.ORIENTATION_PORTRAIT;
+        smallestWidthDp = getSmallestWidthDp((WindowManager) context.getSystemService(Context.WINDOW_SERVICE));
+        hasNavBar = hasNavBar(context, getNavBarOverride());
+        navigationBarHeight = getNavigationBarHeight(context.getResources());
+    }
+
+    /**
+     * Profile for the current configuration of the context
+     */
+    static DeviceProfile get(Context context) {
+        final Configuration configuration = context.getResources().getConfiguration();
+        synchronized (sLock) {
+            if (sProfile == null || !sProfile.configuration.equals(configuration)) {
+                sProfile = new DeviceProfile(context, configuration);
+            }
+            return sProfile;
+        }
+    }
+
+    /**
+     * Drop the cached profile, the next {@link #get(Context)} builds a new one
+     */
+    static void invalidate() {
+        synchronized (sLock) {
+            sProfile = null;
+        }
+    }
+
+    private static String getNavBarOverride() {
+        if (!sNavBarOverrideLoaded) {
+            try {
+                @SuppressLint("PrivateApi") Class c = Class.forName("android.os.SystemProperties");
+                @SuppressWarnings("unchecked") Method m = c.getDeclaredMethod("get", String.class);
+                m.setAccessible(true);
+                sNavBarOverride = (String) m.invoke(null, "qemu.hw.mainkeys");
+            } catch (Throwable e) {
+                sNavBarOverride = null;
+            }
+            sNavBarOverrideLoaded = true;
+        }
+        return sNavBarOverride;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static float getSmallestWidthDp(WindowManager wm) {
+        DisplayMetrics metrics = new DisplayMetrics();
+        wm.getDefaultDisplay().getRealMetrics(metrics);
+        float widthDp = metrics.widthPixels / metrics.density;
+        float heightDp = metrics.heightPixels / metrics.density;
+        return Math.min(widthDp, heightDp);
+    }
+
+    private static boolean hasNavBar(Context context, String navBarOverride) {
+        Resources res = context.getResources();
+        int resourceId = res.getIdentifier(SHOW_NAV_BAR_RES_NAME, "bool", "android");
+        if (resourceId != 0) {
+            boolean hasNav = res.getBoolean(resourceId);
+            // check override flag
+            if ("1".equals(navBarOverride)) {
+                hasNav = false;
+            } else if ("0".equals(navBarOverride)) {
+                hasNav = true;
+            }
+            return hasNav;
+        } else { // fallback
+            return !ViewConfiguration.get(context).hasPermanentMenuKey();
+        }
+    }
+
+    private int getNavigationBarHeight(Resources res) {
+        if (!hasNavBar)
+            return 0;
+        if (inPortrait)
+            return getInternalDimensionSize(res, NAV_BAR_HEIGHT_RES_NAME);
+        if (!isNavigationAtBottom())
+            return 0;
+        return getInternalDimensionSize(res, NAV_BAR_HEIGHT_LANDSCAPE_RES_NAME);
+    }
+
+    private static int getInternalDimensionSize(Resources res, String key) {
+        int result = 0;
+        int resourceId = res.getIdentifier(key, "dimen", "android");
+        if (resourceId > 0) {
+            result = res.getDimensionPixelSize(resourceId);
+        }
+        return result;
+    }
+
+    /**
+     * Should a navigation bar appear at the bottom of the screen in the current
+     * device configuration? A navigation bar may appear on the right side of
+     * the screen in certain configurations.
+     *
+     * @return True if navigation should appear at the bottom of the screen, False otherwise.
+     */
+    private boolean isNavigationAtBottom() {
+        return (smallestWidthDp >= 600 || inPortrait);
+    }
+}
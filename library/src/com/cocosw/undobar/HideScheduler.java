@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Owns the hide deadline of every undobar in the process.
+ * <p>
+ * Deadlines live in one {@link TimerWheel} with frame sized ticks. A single Choreographer
+ * callback is posted for the next due slot, so expiries fire in batches at frame boundaries
+ * instead of each undobar keeping its own message in the main queue. Main thread only.
+ */
+final class HideScheduler implements Choreographer.FrameCallback {
+
+    // About one frame at 60Hz, the wheel covers 256 ticks, a bit over 4 seconds, per revolution
+    private static final long TICK_MS = 16;
+    private static final int SLOTS = 256;
+
+    private static HideScheduler sInstance;
+
+    private final TimerWheel mWheel = new TimerWheel(SLOTS, TICK_MS);
+    // Choreographer the callback is posted to
+    private Choreographer mChoreographer;
+    private boolean mPosted;
+    private long mPostedFor;
+
+    private HideScheduler() {
+    }
+
+    private static HideScheduler get() {
+        if (sInstance == null)
+            sInstance = new HideScheduler();
+        return sInstance;
+    }
+
+    /**
+     * Run the timeout's task delay milliseconds from now, replacing any earlier schedule
+     */
+    static void schedule(TimerWheel.Timeout timeout, long delay) {
+        final HideScheduler scheduler = get();
+        final long now = SystemClock.uptimeMillis();
+        scheduler.mWheel.schedule(timeout, now, delay);
+        scheduler.arm(now);
+    }
+
+    /**
+     * Cancel the timeout if it is scheduled. A callback already posted for it finds nothing to
+     * run and is not re-posted.
+     */
+    static void cancel(TimerWheel.Timeout timeout) {
+        if (sInstance != null)
+            sInstance.mWheel.cancel(timeout);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        final long now = SystemClock.uptimeMillis();
+        mWheel.advance(now);
+        arm(now);
+    }
+
+    private void arm(long now) {
+        final long delay = mWheel.nextDelay(now);
+        if (delay < 0)
+            return;
+        final long due = now + delay;
+        final Choreographer choreographer = Choreographer.getInstance();
+        if (choreographer != mChoreographer) {
+            // The looper the callback went to is gone, the callback with it
+            mChoreographer = choreographer;
+            mPosted = false;
+        }
+        if (mPosted) {
+            // An overdue callback may have been dropped with the frames of its looper; post it again
+            if (mPostedFor <= due && mPostedFor >= now)
+                return;
+            mChoreographer.removeFrameCallback(this);
+        }
+        mChoreographer.postFrameCallbackDelayed(this, delay);
+        mPosted = true;
+        mPostedFor = due;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.ColorFilter;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+import androidx.annotation.ColorInt;
+import androidx.annotation.DrawableRes;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Button icons tinted to the button text color, shared by every undobar in the process.
+ * <p>
+ * Entries are keyed by icon, tint color and density. They hold the drawable's constant state
+ * and its color filter, so a hit neither loads a resource nor builds a filter. The cache is
+ * trimmed from the application's trim memory callbacks.
+ */
+final class IconCache {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final LruCache<Key, Entry> sCache = new LruCache<>(MAX_ENTRIES);
+    // Reused for lookups, entries get their own copy
+    private static final Key sLookup = new Key();
+    private static boolean sCallbacksRegistered;
+
+    private IconCache() {
+    }
+
+    /**
+     * @return a new drawable for the icon tinted to the color, or null if the icon cannot be loaded
+     */
+    @Nullable
+    static Drawable get(@NonNull Context context, @DrawableRes int iconRes, @ColorInt int color) {
+        final int density = context.getResources().getDisplayMetrics().densityDpi;
+        Entry entry;
+        synchronized (sCache) {
+            registerCallbacks(context);
+            entry = sCache.get(sLookup.set(iconRes, color, density));
+        }
+        if (entry != null) {
+            final Drawable drawable = entry.state.newDrawable(context.getResources());
+            drawable.setColorFilter(entry.filter);
+            return drawable;
+        }
+        Drawable drawable = context.getDrawable(iconRes);
+        if (drawable == null)
+            return null;
+        drawable = drawable.mutate();
+        final ColorFilter filter = tint(color);
+        drawable.setColorFilter(filter);
+        final Drawable.ConstantState state = drawable.getConstantState();
+        if (state != null) {
+            synchronized (sCache) {
+                sCache.put(new Key().set(iconRes, color, density), new Entry(state, filter));
+            }
+        }
+        return drawable;
+    }
+
+    static void clear() {
+        synchronized (sCache) {
+            sCache.evictAll();
+        }
+    }
+
+    /**
+     * Paints every pixel in the color, keeping the icon's alpha
+     */
+    private static ColorFilter tint(int color) {
+        int red = (color & 0xFF0000) / 0xFFFF;
+        int green = (color & 0xFF00) / 0xFF;
+        int blue = color & 0xFF;
+
+        float[] matrix = {0, 0, 0, 0, red
+                , 0, 0, 0, 0, green
+                , 0, 0, 0, 0, blue
+                , 0, 0, 0, 1, 0};
+
+        return new ColorMatrixColorFilter(matrix);
+    }
+
+    private static void registerCallbacks(Context context) {
+        if (sCallbacksRegistered)
+            return;
+        sCallbacksRegistered = true;
+        context.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_UI_HIDDEN) {
+                    clear();
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+
+    private static final class Key {
+        private int iconRes;
+        private int color;
+        private int density;
+
+        private Key set(int iconRes, int color, int density) {
+            this.iconRes = iconRes;
+            this.color = color;
+            this.density = density;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return iconRes == that.iconRes && color == that.color && density == that.density;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * iconRes + color) + density;
+        }
+    }
+
+    private static final class Entry {
+        private final Drawable.ConstantState state;
+        private final ColorFilter filter;
+
+        private Entry(Drawable.ConstantState state, ColorFilter filter) {
+            this.state = state;
+            this.filter = filter;
+        }
+    }
+}
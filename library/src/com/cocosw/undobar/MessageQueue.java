@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+/**
+ * Messages waiting for the undobar to become free, oldest first.
+ */
+interface MessageQueue<E> {
+
+    /**
+     * Callback for entries the queue had to drop to stay within its limits.
+     */
+    interface OnDropListener<E> {
+        void onDropped(E e);
+    }
+
+    /**
+     * Estimates how many bytes an entry keeps alive while it is queued.
+     */
+    interface Weigher<E> {
+        long weigh(E e);
+    }
+
+    /**
+     * Append an entry, applying the overflow policy if the queue is full.
+     *
+     * @return false if the entry itself was dropped
+     */
+    boolean offer(E e);
+
+    /**
+     * Remove and return the oldest entry, or null if the queue is empty.
+     */
+    E poll();
+
+    /**
+     * Return the oldest entry without removing it, or null if the queue is empty.
+     */
+    E peek();
+
+    /**
+     * Return the entry at the given position, counted from the oldest one.
+     */
+    E get(int index);
+
+    int size();
+
+    boolean isEmpty();
+
+    /**
+     * Estimated size of all queued entries, 0 if the queue has no memory budget.
+     */
+    long bytes();
+
+    /**
+     * Remove all entries without notifying the drop listener.
+     */
+    void clear();
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+/**
+ * What the undobar does with pending messages once its queue reaches the configured
+ * capacity or memory budget.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest pending messages until the new one fits.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep the pending messages and drop the new one.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop every pending message and keep only the new one.
+     */
+    COLLAPSE_INTO_LATEST
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+/**
+ * Array backed {@link MessageQueue}.
+ * <p>
+ * With a capacity the backing array is allocated once and never grows; without one it
+ * doubles as needed. A memory budget is enforced from the weigher's estimates. The newest
+ * entry is always accepted into an empty queue, even if it alone exceeds the budget.
+ */
+final class RingBufferMessageQueue<E> implements MessageQueue<E> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int capacity;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+    private final Weigher<? super E> weigher;
+    private final OnDropListener<? super E> dropListener;
+
+    private Object[] elements;
+    private long[] weights;
+    private int head;
+    private int size;
+    private long bytes;
+
+    /**
+     * @param capacity     maximum number of entries, 0 for unbounded
+     * @param policy       what to drop once the queue is full
+     * @param maxBytes     memory budget in bytes, 0 for unlimited
+     * @param weigher      size estimate for entries, only used with a memory budget
+     * @param dropListener notified of every dropped entry, may be null
+     */
+    RingBufferMessageQueue(int capacity, OverflowPolicy policy, long maxBytes,
+                           Weigher<? super E> weigher, OnDropListener<? super E> dropListener) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes < 0: " + maxBytes);
+        if (maxBytes > 0 && weigher == null)
+            throw new IllegalArgumentException("A weigher is required with a memory budget");
+        this.capacity = capacity;
+        this.policy = policy == null ? OverflowPolicy.DROP_OLDEST : policy;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.dropListener = dropListener;
+        final int length = capacity > 0 ? capacity : INITIAL_CAPACITY;
+        elements = new Object[length];
+        weights = new long[length];
+    }
+
+    @Override
+    public boolean offer(E e) {
+        final long weight = maxBytes > 0 ? weigher.weigh(e) : 0;
+        if (isFull(weight)) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    drop(e);
+                    return false;
+                case COLLAPSE_INTO_LATEST:
+                    while (size > 0)
+                        drop(removeFirst());
+                    break;
+                case DROP_OLDEST:
+                default:
+                    while (isFull(weight))
+                        drop(removeFirst());
+                    break;
+            }
+        }
+        if (size == elements.length)
+            grow();
+        final int tail = index(size);
+        elements[tail] = e;
+        weights[tail] = weight;
+        bytes += weight;
+        size++;
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        return size == 0 ? null : removeFirst();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        return size == 0 ? null : (E) elements[head];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        return (E) elements[index(index)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            elements[index(i)] = null;
+        }
+        head = 0;
+        size = 0;
+        bytes = 0;
+    }
+
+    private boolean isFull(long weight) {
+        if (size == 0)
+            return false;
+        return (capacity > 0 && size >= capacity) || (maxBytes > 0 && bytes + weight > maxBytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E removeFirst() {
+        final E e = (E) elements[head];
+        elements[head] = null;
+        bytes -= weights[head];
+        head = index(1);
+        size--;
+        return e;
+    }
+
+    private void drop(E e) {
+        if (dropListener != null)
+            dropListener.onDropped(e);
+    }
+
+    private int index(int offset) {
+        final int i = head + offset;
+        return i < elements.length ? i : i - elements.length;
+    }
+
+    private void grow() {
+        final int length = elements.length << 1;
+        final Object[] newElements = new Object[length];
+        final long[] newWeights = new long[length];
+        for (int i = 0; i < size; i++) {
+            final int from = index(i);
+            newElements[i] = elements[from];
+            newWeights[i] = weights[from];
+        }
+        elements = newElements;
+        weights = newWeights;
+        head = 0;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link UndoBarMetrics} backed by striped counters and fixed-bucket histograms.
+ * Recording never allocates or locks; read the numbers with {@link #snapshot()} from any thread.
+ */
+public final class StripedUndoBarMetrics implements UndoBarMetrics {
+
+    private final LongAdder undone = new LongAdder();
+    private final LongAdder autoHidden = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder cleared = new LongAdder();
+    private final Histogram queueDepth = new Histogram();
+    private final Histogram waitMillis = new Histogram();
+    private final Histogram showAnimationMillis = new Histogram();
+    private final Histogram hideAnimationMillis = new Histogram();
+
+    @Override
+    public void onQueued(int depth) {
+        queueDepth.record(depth);
+    }
+
+    @Override
+    public void onShown(long waitMillis) {
+        this.waitMillis.record(waitMillis);
+    }
+
+    @Override
+    public void onShowAnimation(long durationMillis) {
+        showAnimationMillis.record(durationMillis);
+    }
+
+    @Override
+    public void onHideAnimation(long durationMillis) {
+        hideAnimationMillis.record(durationMillis);
+    }
+
+    @Override
+    public void onUndo(int tokens) {
+        undone.add(tokens);
+    }
+
+    @Override
+    public void onAutoHide(int tokens) {
+        autoHidden.add(tokens);
+    }
+
+    @Override
+    public void onDropped(int tokens) {
+        dropped.add(tokens);
+    }
+
+    @Override
+    public void onCleared(int tokens) {
+        cleared.add(tokens);
+    }
+
+    @NonNull
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Point in time copy of the metrics. Counters are in tokens.
+     */
+    public static final class Snapshot {
+        public final long undone;
+        public final long autoHidden;
+        public final long dropped;
+        public final long cleared;
+        public final Histogram.Snapshot queueDepth;
+        public final Histogram.Snapshot waitMillis;
+        public final Histogram.Snapshot showAnimationMillis;
+        public final Histogram.Snapshot hideAnimationMillis;
+
+        private Snapshot(StripedUndoBarMetrics metrics) {
+            undone = metrics.undone.sum();
+            autoHidden = metrics.autoHidden.sum();
+            dropped = metrics.dropped.sum();
+            cleared = metrics.cleared.sum();
+            queueDepth = metrics.queueDepth.snapshot();
+            waitMillis = metrics.waitMillis.snapshot();
+            showAnimationMillis = metrics.showAnimationMillis.snapshot();
+            hideAnimationMillis = metrics.hideAnimationMillis.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return "undone=" + undone + " autoHidden=" + autoHidden + " dropped=" + dropped + " cleared=" + cleared
+                    + " queueDepth={" + queueDepth + "} waitMillis={" + waitMillis
+                    + "} showAnimationMillis={" + showAnimationMillis
+                    + "} hideAnimationMillis={" + hideAnimationMillis + "}";
+        }
+    }
+
+    /**
+     * Histogram of non-negative values with power of two buckets: 0, 1, 2-3, 4-7, ... up to 2^62.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+        }
+
+        void record(long value) {
+            if (value < 0)
+                value = 0;
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            sum.add(value);
+        }
+
+        Snapshot snapshot() {
+            final long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return new Snapshot(counts, sum.sum());
+        }
+
+        public static final class Snapshot {
+            private final long[] counts;
+            public final long count;
+            public final long sum;
+
+            private Snapshot(long[] counts, long sum) {
+                this.counts = counts;
+                long count = 0;
+                for (long c : counts) {
+                    count += c;
+                }
+                this.count = count;
+                this.sum = sum;
+            }
+
+            public double mean() {
+                return count == 0 ? 0 : (double) sum / count;
+            }
+
+            /**
+             * Upper bound of the bucket holding the given percentile
+             *
+             * @param percentile between 0 and 100
+             */
+            public long percentile(double percentile) {
+                if (count == 0)
+                    return 0;
+                final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+                long seen = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    seen += counts[i];
+                    if (seen >= rank)
+                        return upperBound(i);
+                }
+                return upperBound(counts.length - 1);
+            }
+
+            /**
+             * Upper bound of the highest non-empty bucket
+             */
+            public long max() {
+                for (int i = counts.length - 1; i >= 0; i--) {
+                    if (counts[i] != 0)
+                        return upperBound(i);
+                }
+                return 0;
+            }
+
+            private static long upperBound(int bucket) {
+                return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+            }
+
+            @Override
+            public String toString() {
+                return "count=" + count + " mean=" + mean() + " p50=" + percentile(50) + " p99=" + percentile(99)
+                        + " max=" + max();
+            }
+        }
+    }
+}
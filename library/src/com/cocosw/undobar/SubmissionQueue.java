@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer, single-consumer queue.
+ * <p>
+ * Any thread may {@link #offer} without blocking; producers only contend on one atomic swap.
+ * A single consumer thread polls. {@link #offer} reports when the consumer needs waking up,
+ * so a burst from many threads is drained in one go instead of one wake-up per entry.
+ */
+final class SubmissionQueue<E> {
+
+    private static final class Node<E> {
+        volatile Node<E> next;
+        E value;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    private final AtomicReference<Node<E>> tail;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Consumer side only
+    private Node<E> head;
+
+    SubmissionQueue() {
+        final Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Append an entry, from any thread.
+     *
+     * @return true if the caller must schedule a drain, false if one is already pending
+     */
+    boolean offer(E e) {
+        final Node<E> node = new Node<>(e);
+        final Node<E> prev = tail.getAndSet(node);
+        prev.next = node;
+        return drainScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by the consumer before it starts draining. Entries offered from now on schedule
+     * another drain, so none is left behind if the drain races with a producer.
+     */
+    void beginDrain() {
+        drainScheduled.set(false);
+    }
+
+    /**
+     * Remove the oldest entry, from the consumer thread only.
+     *
+     * @return the entry, or null if none is visible yet
+     */
+    E poll() {
+        final Node<E> next = head.next;
+        if (next == null)
+            return null;
+        final E value = next.value;
+        next.value = null;
+        head = next;
+        return value;
+    }
+}
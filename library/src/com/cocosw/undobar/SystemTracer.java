@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link UndoBarTracer} emitting sections with {@link Trace}, visible in systrace and Perfetto
+ * when the app is traced. Nearly free otherwise.
+ */
+public final class SystemTracer implements UndoBarTracer {
+
+    public static final SystemTracer INSTANCE = new SystemTracer();
+
+    private SystemTracer() {
+    }
+
+    @Override
+    public void beginSection(@NonNull String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+}
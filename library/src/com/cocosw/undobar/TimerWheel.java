@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+/**
+ * Hashed timer wheel with O(1) schedule and cancel.
+ * <p>
+ * Time is split in ticks, and each timeout is linked into the slot of the first tick at or
+ * after its deadline. Deadlines further away than one revolution share slots with nearer
+ * ones and are skipped until their time comes. Not thread safe; the owner drives it from
+ * a single thread through {@link #advance(long)}.
+ */
+final class TimerWheel {
+
+    /**
+     * A task that can be scheduled on one wheel at a time. Reusable once fired or cancelled.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private long deadline;
+        private Timeout prev;
+        private Timeout next;
+        // Slot the timeout is linked into, the expired list, or NOT_SCHEDULED
+        private int slot = NOT_SCHEDULED;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        boolean isScheduled() {
+            return slot != NOT_SCHEDULED;
+        }
+    }
+
+    private static final int NOT_SCHEDULED = -1;
+
+    private final long tickMs;
+    private final int mask;
+    // One list per slot, plus the list of expired timeouts waiting to run at the end
+    private final Timeout[] heads;
+    private final int expired;
+    private long lastTick = -1;
+    private int size;
+
+    /**
+     * @param slots  number of slots, a power of two
+     * @param tickMs length of a tick in milliseconds
+     */
+    TimerWheel(int slots, long tickMs) {
+        if (slots <= 0 || (slots & (slots - 1)) != 0)
+            throw new IllegalArgumentException("slots must be a power of two: " + slots);
+        if (tickMs <= 0)
+            throw new IllegalArgumentException("tickMs <= 0: " + tickMs);
+        this.tickMs = tickMs;
+        this.mask = slots - 1;
+        this.heads = new Timeout[slots + 1];
+        this.expired = slots;
+    }
+
+    /**
+     * Schedule the timeout to run delay milliseconds after now, replacing any earlier schedule.
+     */
+    void schedule(Timeout timeout, long now, long delay) {
+        cancel(timeout);
+        if (size == 0)
+            lastTick = now / tickMs;
+        final long deadline = now + Math.max(0, delay);
+        final long tick = Math.max((deadline + tickMs - 1) / tickMs, lastTick + 1);
+        timeout.deadline = deadline;
+        link(timeout, (int) (tick & mask));
+        size++;
+    }
+
+    /**
+     * Cancel the timeout if it is scheduled.
+     */
+    void cancel(Timeout timeout) {
+        if (timeout.isScheduled()) {
+            unlink(timeout);
+            size--;
+        }
+    }
+
+    /**
+     * Run every timeout whose deadline is not after now rounded down to a whole tick, so a timeout
+     * fires on the first tick boundary at or after its deadline. Tasks may schedule and cancel timeouts.
+     *
+     * @return number of timeouts that fired
+     */
+    int advance(long now) {
+        final long nowTick = now / tickMs;
+        final long first = Math.max(lastTick + 1, nowTick - mask);
+        for (long tick = first; tick <= nowTick; tick++) {
+            Timeout timeout = heads[(int) (tick & mask)];
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                if (timeout.deadline <= now) {
+                    unlink(timeout);
+                    link(timeout, expired);
+                }
+                timeout = next;
+            }
+        }
+        if (nowTick > lastTick)
+            lastTick = nowTick;
+        int fired = 0;
+        Timeout timeout;
+        while ((timeout = heads[expired]) != null) {
+            unlink(timeout);
+            size--;
+            fired++;
+            timeout.task.run();
+        }
+        return fired;
+    }
+
+    /**
+     * Milliseconds from now until the next slot holding a timeout comes due, or -1 if none is scheduled.
+     * The slot may only hold timeouts for a later revolution, in which case advancing finds nothing to run.
+     */
+    long nextDelay(long now) {
+        if (size == 0)
+            return -1;
+        if (heads[expired] != null)
+            return 0;
+        for (long tick = lastTick + 1; tick <= lastTick + 1 + mask; tick++) {
+            if (heads[(int) (tick & mask)] != null)
+                return Math.max(0, tick * tickMs - now);
+        }
+        return 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void link(Timeout timeout, int slot) {
+        final Timeout head = heads[slot];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null)
+            head.prev = timeout;
+        heads[slot] = timeout;
+        timeout.slot = slot;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null)
+            timeout.prev.next = timeout.next;
+        else
+            heads[timeout.slot] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = NOT_SCHEDULED;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.SecureRandom;
+
+/**
+ * Undo token standing for an in-process payload, see {@link UndoBarController.UndoBar#payload(Object)}.
+ * <p>
+ * The payload stays in a process-wide registry under a long handle, which is all the undobar keeps,
+ * parcels and journals. It is released once the undobar callbacks for the token have returned,
+ * so resolve it with {@link #get()} from within the callback.
+ * <p>
+ * Handles carry a random epoch drawn once per process in their upper half, so after process death a
+ * restored handle no longer resolves, instead of resolving to a payload the new process registered
+ * under the same number.
+ */
+public final class TokenHandle implements Parcelable {
+
+    private static final Object sLock = new Object();
+    // Guarded by sLock
+    private static final LongSparseArray<Object> sPayloads = new LongSparseArray<>();
+    private static final long EPOCH = newEpoch();
+    // Guarded by sLock, the lower half of the next handle
+    private static int sNextHandle;
+
+    private final long handle;
+
+    TokenHandle(long handle) {
+        this.handle = handle;
+    }
+
+    static TokenHandle register(@NonNull Object payload) {
+        synchronized (sLock) {
+            final long handle = EPOCH | (++sNextHandle & 0xFFFFFFFFL);
+            sPayloads.put(handle, payload);
+            return new TokenHandle(handle);
+        }
+    }
+
+    /**
+     * The payload, or null once released or in a new process
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T get() {
+        if (!isFromThisProcess())
+            return null;
+        synchronized (sLock) {
+            return (T) sPayloads.get(handle);
+        }
+    }
+
+    public long handle() {
+        return handle;
+    }
+
+    /**
+     * Whether the handle was registered by this process, false for one restored after process death
+     */
+    boolean isFromThisProcess() {
+        return (handle & 0xFFFFFFFF00000000L) == EPOCH;
+    }
+
+    private static long newEpoch() {
+        final SecureRandom random = new SecureRandom();
+        int epoch;
+        do {
+            epoch = random.nextInt();
+        } while (epoch == 0);
+        return (long) epoch << 32;
+    }
+
+    void release() {
+        synchronized (sLock) {
+            sPayloads.remove(handle);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TokenHandle && ((TokenHandle) o).handle == handle;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (handle ^ (handle >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "TokenHandle{" + handle + "}";
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(handle);
+    }
+
+    public static final Parcelable.Creator<TokenHandle> CREATOR = new Parcelable.Creator<TokenHandle>() {
+        public TokenHandle createFromParcel(Parcel source) {
+            return new TokenHandle(source.readLong());
+        }
+
+        public TokenHandle[] newArray(int size) {
+            return new TokenHandle[size];
+        }
+    };
+}
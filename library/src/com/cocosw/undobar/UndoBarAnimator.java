@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.animation.TimeInterpolator;
+import android.view.View;
+
+/**
+ * Slides and fades an undobar with {@link View#animate()}: translationY and alpha on a hardware layer,
+ * both RenderNode properties that need no relayout.
+ * <p>
+ * Animations can be interrupted at any time. The next one starts where the view is, with its duration cut
+ * to the remaining distance, so a show reverses a half-run hide instead of jumping back.
+ */
+final class UndoBarAnimator {
+
+    private final View view;
+    // Reused for every animation instead of a new end action per start
+    private final Runnable mEnd = new Runnable() {
+        @Override
+        public void run() {
+            running = false;
+            final Runnable endAction = mEndAction;
+            mEndAction = null;
+            if (endAction != null)
+                endAction.run();
+        }
+    };
+    private Runnable mEndAction;
+    private boolean running;
+    // Moved away from rest by an animation
+    private boolean moved;
+
+    UndoBarAnimator(View view) {
+        this.view = view;
+    }
+
+    /**
+     * Slide in to restY, from offset below it unless another animation is running
+     *
+     * @param endAction run once the view is in, not if interrupted
+     */
+    void show(float restY, float offset, long duration, TimeInterpolator interpolator, Runnable endAction) {
+        if (!running) {
+            view.setTranslationY(restY + offset);
+            view.setAlpha(0f);
+        }
+        start(restY, 1f, scale(duration, view.getTranslationY() - restY, offset), interpolator, endAction);
+    }
+
+    /**
+     * Slide out to offset below restY, from wherever the view is
+     *
+     * @param endAction run once the view is out, not if interrupted
+     */
+    void hide(float restY, float offset, long duration, TimeInterpolator interpolator, Runnable endAction) {
+        start(restY + offset, 0f, scale(duration, restY + offset - view.getTranslationY(), offset), interpolator,
+                endAction);
+    }
+
+    /**
+     * Stop at once and put the view back at rest, if an animation moved it
+     */
+    void cancel(float restY) {
+        if (running) {
+            view.animate().cancel();
+            running = false;
+            mEndAction = null;
+        }
+        if (moved) {
+            view.setTranslationY(restY);
+            view.setAlpha(1f);
+            moved = false;
+        }
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    private void start(float translationY, float alpha, long duration, TimeInterpolator interpolator,
+                       Runnable endAction) {
+        running = true;
+        moved = true;
+        mEndAction = endAction;
+        // Starting new property animations cancels the running ones, without their end action
+        view.animate()
+                .translationY(translationY)
+                .alpha(alpha)
+                .setDuration(duration)
+                .setInterpolator(interpolator)
+                .withLayer()
+                .withEndAction(mEnd);
+    }
+
+    /**
+     * Duration for the remaining distance out of the full one
+     */
+    private static long scale(long duration, float remaining, float full) {
+        if (full <= 0)
+            return duration;
+        return (long) (duration * Math.min(1f, Math.abs(remaining) / full));
+    }
+}
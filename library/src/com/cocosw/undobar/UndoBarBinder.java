@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.graphics.drawable.Drawable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Binds messages to the views of one undobar, touching only the properties that differ from what is bound.
+ * <p>
+ * Text, visibility, drawable, background and padding setters request a layout, some even when the value is
+ * unchanged, so back-to-back messages of the same style would otherwise relayout the bar on every show.
+ * Properties a message leaves alone keep their bound value. Main thread only.
+ */
+final class UndoBarBinder {
+
+    private static final int UNKNOWN = -1;
+
+    private final View root;
+    private final View bar;
+    private final TextView message;
+    private final TextView button;
+    private final View divider;
+
+    private CharSequence mText;
+    private int mButtonVisibility = UNKNOWN;
+    private int mTitleRes = UNKNOWN;
+    // Icon drawn on the button, 0 for none
+    private int mIconRes = UNKNOWN;
+    private int mIconColor;
+    // Icons drawn on this button in mIconColor, so switching back to one needs no new drawable
+    private final SparseArray<Drawable> mIcons = new SparseArray<>(2);
+    private int mBgRes = UNKNOWN;
+    private int mBottomPadding = UNKNOWN;
+
+    UndoBarBinder(View root, View bar, TextView message, TextView button, View divider) {
+        this.root = root;
+        this.bar = bar;
+        this.message = message;
+        this.button = button;
+        this.divider = divider;
+    }
+
+    void bindText(CharSequence text) {
+        if (text == mText || !(text instanceof Spanned) && !(mText instanceof Spanned) && TextUtils.equals(text, mText))
+            return;
+        message.setText(text, TextView.BufferType.SPANNABLE);
+        mText = text;
+    }
+
+    /**
+     * Show the button with its title and icon, or hide it if the style has no title
+     */
+    void bindButton(UndoBarStyle style, boolean noIcon, boolean colorDrawable) {
+        if (style.titleRes <= 0) {
+            bindButtonVisibility(View.GONE);
+            return;
+        }
+        bindButtonVisibility(View.VISIBLE);
+        if (style.titleRes != mTitleRes) {
+            button.setText(style.titleRes);
+            mTitleRes = style.titleRes;
+        }
+        if (noIcon) {
+            bindIcon(0, 0);
+        } else if (style.iconRes > 0) {
+            bindIcon(colorDrawable ? style.iconRes : 0, button.getTextColors().getDefaultColor());
+        }
+    }
+
+    private void bindButtonVisibility(int visibility) {
+        if (visibility == mButtonVisibility)
+            return;
+        button.setVisibility(visibility);
+        divider.setVisibility(visibility);
+        mButtonVisibility = visibility;
+    }
+
+    private void bindIcon(int iconRes, int color) {
+        if (iconRes == mIconRes && (iconRes == 0 || color == mIconColor))
+            return;
+        mIconRes = iconRes;
+        if (iconRes == 0) {
+            button.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
+            return;
+        }
+        if (color != mIconColor) {
+            mIcons.clear();
+            mIconColor = color;
+        }
+        UndoBarController.beginSection("UndoBar.icon");
+        Drawable drawable = mIcons.get(iconRes);
+        if (drawable == null) {
+            try {
+                drawable = IconCache.get(button.getContext(), iconRes, color);
+            } catch (Exception ignored) {
+                // Drawn without icon, retried by the next bind
+                mIconRes = 0;
+            }
+            if (drawable != null)
+                mIcons.put(iconRes, drawable);
+        }
+        button.setCompoundDrawablesWithIntrinsicBounds(drawable, null, null, null);
+        UndoBarController.endSection();
+    }
+
+    void bindBackground(int bgRes) {
+        if (bgRes == mBgRes)
+            return;
+        bar.setBackgroundResource(bgRes);
+        mBgRes = bgRes;
+    }
+
+    void bindBottomPadding(int padding) {
+        if (padding == mBottomPadding)
+            return;
+        root.setPadding(0, 0, 0, padding);
+        mBottomPadding = padding;
+    }
+}
@@ -16,36 +16,37 @@
 
 package com.cocosw.undobar;
 
-import android.annotation.SuppressLint;
-import android.annotation.TargetApi;
+import android.animation.TimeInterpolator;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Configuration;
-import android.content.res.Resources;
 import android.content.res.TypedArray;
-import android.graphics.ColorFilter;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
+import android.text.PrecomputedText;
 
 import androidx.annotation.IdRes;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.PluralsRes;
+import androidx.annotation.RequiresApi;
 import androidx.annotation.StringRes;
 import android.text.TextUtils;
 import android.util.AttributeSet;
-import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.view.animation.AccelerateInterpolator;
 import android.view.animation.Animation;
-import android.view.animation.AnimationUtils;
+import android.view.animation.DecelerateInterpolator;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
@@ -53,17 +54,44 @@ import com.cocosw.undobar.R.drawable;
 import com.cocosw.undobar.R.id;
 import com.cocosw.undobar.R.string;
 
-import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Executor;
 
 @SuppressWarnings("unused")
 public class UndoBarController extends LinearLayout {
 
+    private static final String TAG = "UndoBarController";
     private static final String SAVED_STATE = "_state_undobar";
+    private static final String SAVED_STATE_FILE = "_state_undobar_file";
+    private static final String SPILL_DIR = "undobar";
+    // Spill files older than this were never restored
+    private static final long SPILL_MAX_AGE = 24 * 60 * 60 * 1000L;
     private static final String STATE_CURRENT_MESSAGE = "_state_undobar_current";
-    private static final String NAV_BAR_HEIGHT_RES_NAME = "navigation_bar_height";
-    private static final String NAV_BAR_HEIGHT_LANDSCAPE_RES_NAME = "navigation_bar_height_landscape";
-    private static final String SHOW_NAV_BAR_RES_NAME = "config_showNavigationBar";
+    // Rough cost of a queued Message, its style reference and boxed fields
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+    // Shortest time an undobar stays on screen when the backlog shortens it
+    private static final long MIN_ADAPTIVE_DURATION = 750;
+    // View Animations can only be played in full or skipped; they are skipped below this share of the duration
+    private static final float MIN_ANIMATION_SCALE = 0.5f;
+    // Stacking offset of extra slots until the first undobar has been laid out: min height plus bottom margin
+    private static final int SLOT_FALLBACK_HEIGHT_DP = 64;
+
+    /**
+     * Default number of tokens delivered per {@link StreamingUndoListener#onClear(Parcelable[], int, boolean)} call
+     */
+    public static final int DEFAULT_CLEAR_CHUNK_SIZE = 256;
+
+    /**
+     * Default size in bytes above which waiting messages are saved to a file instead of the instance state
+     */
+    public static final int DEFAULT_SAVED_STATE_LIMIT = 32 * 1024;
 
     public static final UndoBarStyle UNDOSTYLE = new UndoBarStyle(
             drawable.ic_undobar_undo, string.undo);
@@ -72,41 +100,538 @@ public class UndoBarController extends LinearLayout {
     public static final UndoBarStyle MESSAGESTYLE = new UndoBarStyle(-1, -1, 5000);
 
 
-    private LinkedList<Message> mMessages = new LinkedList<>();
+    private final MessageQueue.OnDropListener<Message> mDropListener = new MessageQueue.OnDropListener<Message>() {
+        @Override
+        public void onDropped(Message message) {
+            final UndoBarMetrics metrics = sMetrics;
+            if (metrics != null)
+                metrics.onDropped(message.count);
+            dispatchHide(message);
+            message.recycle();
+        }
+    };
+    private static final MessageQueue.Weigher<Message> MESSAGE_WEIGHER = new MessageQueue.Weigher<Message>() {
+        @Override
+        public long weigh(Message message) {
+            return estimateBytes(message);
+        }
+    };
+    // Measures undo tokens for the byte budget, reused so an offer does not take a Parcel; main thread only
+    private static Parcel sSizingParcel;
+    // Null unless enabled, so the show and hide path only pays for a field read
+    private static volatile UndoBarMetrics sMetrics;
+    private static volatile UndoBarTracer sTracer = SystemTracer.INSTANCE;
+    private int mQueueCapacity;
+    private OverflowPolicy mOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long mQueueBudget;
+    private MessageQueue<Message> mMessages = newMessageQueue();
+    private int mSavedStateLimit = DEFAULT_SAVED_STATE_LIMIT;
+    // Adaptive drain: longest time a message may wait before it is shown, 0 for none
+    private long mMaxWait;
+    // Duration and animation speed of the undobar on screen, shortened by the backlog
+    private long mEffectiveDuration;
+    private float mAnimationScale = 1f;
+    private long mShownAt;
+    // Waiting messages saved to a file, loaded on first use
+    private File mRestoreFile;
+    // File written by the last save, superseded by the next one
+    private File mSpillFile;
+
+    // Undobars posted from background threads, drained on the main thread once per frame
+    private static final SubmissionQueue<Submission> sSubmissions = new SubmissionQueue<>();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    // Messages of finished activities waiting for the next undobar, see setHandOffOnDestroy
+    private static final ArrayDeque<Message> sHandedOff = new ArrayDeque<>();
+    private static boolean sHandOffOnDestroy;
+    private static final Choreographer.FrameCallback DRAIN_SUBMISSIONS = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drainSubmissions();
+        }
+    };
+    private static final Runnable SCHEDULE_DRAIN = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(DRAIN_SUBMISSIONS);
+        }
+    };
     private Message currentMessage;
     private boolean mShowing;
 
 
     private Animation inAnimation;
     private Animation outAnimation;
+    // Own copies of the last style animations, a style's instances are shared by every slot
+    private Animation mStyleIn;
+    private Animation mStyleInCopy;
+    private Animation mStyleOut;
+    private Animation mStyleOutCopy;
     private final TextView mMessageView;
     private final TextView mButton;
+    private final UndoBarBinder mBinder;
     private final Handler mHideHandler = new Handler();
+    // Message to show once the out animation ends, read by the shared listener below
+    private Message mPendingNext;
+    private long mHideStartedAt;
+    private long mShowStartedAt;
+    // Property animator engine, see UndoBarStyle#setAnimator
+    private static final TimeInterpolator DEFAULT_IN_INTERPOLATOR = new DecelerateInterpolator();
+    private static final TimeInterpolator DEFAULT_OUT_INTERPOLATOR = new AccelerateInterpolator();
+    private final UndoBarAnimator mAnimator = new UndoBarAnimator(this);
+    // Sliding out: no longer showing, but currentMessage stays until the slide ends or is interrupted
+    private boolean mHiding;
+    private float mRestTranslationY;
+    private final Runnable mHiddenAction = new Runnable() {
+        @Override
+        public void run() {
+            beginSection("UndoBar.hideAnimationEnd");
+            final UndoBarMetrics metrics = sMetrics;
+            if (metrics != null)
+                metrics.onHideAnimation(SystemClock.uptimeMillis() - mHideStartedAt);
+            mHiding = false;
+            setVisibility(View.GONE);
+            releaseCurrentMessage();
+            owner().restoreSpilled();
+            final Message next = owner().mMessages.poll();
+            if (next != null)
+                showUndoBar(next);
+            endSection();
+        }
+    };
+    private final Runnable mShownAction = new Runnable() {
+        @Override
+        public void run() {
+            final UndoBarMetrics metrics = sMetrics;
+            if (metrics != null)
+                metrics.onShowAnimation(SystemClock.uptimeMillis() - mShowStartedAt);
+        }
+    };
+    private final Animation.AnimationListener mInAnimationListener = new Animation.AnimationListener() {
+        @Override
+        public void onAnimationStart(Animation animation) {
+
+        }
+
+        @Override
+        public void onAnimationEnd(Animation animation) {
+            mShownAction.run();
+        }
+
+        @Override
+        public void onAnimationRepeat(Animation animation) {
+
+        }
+    };
+    private final Animation.AnimationListener mOutAnimationListener = new Animation.AnimationListener() {
+        @Override
+        public void onAnimationStart(Animation animation) {
+
+        }
+
+        @Override
+        public void onAnimationEnd(Animation animation) {
+            beginSection("UndoBar.hideAnimationEnd");
+            final UndoBarMetrics metrics = sMetrics;
+            if (metrics != null)
+                metrics.onHideAnimation(SystemClock.uptimeMillis() - mHideStartedAt);
+            final Message next = mPendingNext;
+            mPendingNext = null;
+            releaseCurrentMessage();
+            mShowing = false;
+            if (next != null)
+                showUndoBar(next);
+            endSection();
+        }
+
+        @Override
+        public void onAnimationRepeat(Animation animation) {
+
+        }
+    };
+
     private final Runnable mHideRunnable = new Runnable() {
         @Override
         public void run() {
-            final UndoListener listener = getUndoListener();
-            if (listener instanceof AdvancedUndoListener) {
-                ((AdvancedUndoListener) listener).onHide(currentMessage.undoToken);
-            }
-            if (currentMessage.immediate) {
-                hideUndoBar(true);
-            } else {
-                hideUndoBar(false);
-            }
+            beginSection("UndoBar.autoHide");
+            final Message message = currentMessage;
+            final UndoBarMetrics metrics = sMetrics;
+            if (metrics != null)
+                metrics.onAutoHide(message.count);
+            message.dispatching = true;
+            dispatchHide(message);
+            message.dispatching = false;
+            if (!detachedByCallback(message))
+                hideUndoBar(message.immediate);
+            endSection();
         }
     };
+    private final TimerWheel.Timeout mHideTimeout = new TimerWheel.Timeout(mHideRunnable);
     //Only for KitKat translucent mode
-    private boolean mInPortrait;
-    private String sNavBarOverride;
     private boolean mNavBarAvailable;
-    private float mSmallestWidthDp;
+    private boolean mTranslucentTheme;
+
+    // Multi-slot display: the primary controller owns the queue and the extra slots stacked above it
+    private UndoBarController mOwner;
+    private UndoBarController[] mSlots = new UndoBarController[0];
+    private int mSlotIndex;
 
     private void addMessage(Message message) {
-        mMessages.add(message);
+        mMessages.offer(message);
+        final UndoBarMetrics metrics = sMetrics;
+        if (metrics != null)
+            metrics.onQueued(mMessages.size());
+        if (mMaxWait > 0)
+            shortenForBacklog();
+    }
+
+    /**
+     * Report undobar events of every activity to metrics, e.g. a {@link StripedUndoBarMetrics}
+     *
+     * @param metrics receiver of the events, null to stop reporting
+     */
+    public static void setMetrics(@Nullable UndoBarMetrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * Wrap the phases of showing and hiding undobars in trace sections, {@link SystemTracer} by default
+     *
+     * @param tracer receiver of the sections, null to stop tracing
+     */
+    public static void setTracer(@Nullable UndoBarTracer tracer) {
+        sTracer = tracer;
+    }
+
+    /**
+     * Keep the undobars of destroyed activities instead of clearing them, unless the activity is recreated and
+     * saved them with {@link UndoBar#onSaveInstanceState(Bundle)}. Their messages move to an application
+     * wide queue and are shown by the next undobar of any activity. Like restored undobars they lose their
+     * listener, while tokens, deferred operations and journal entries go with them. Main thread only.
+     *
+     * @param handOff true to hand messages off, false to clear them when the activity is destroyed (default)
+     */
+    public static void setHandOffOnDestroy(boolean handOff) {
+        sHandOffOnDestroy = handOff;
+    }
+
+    static void beginSection(String name) {
+        final UndoBarTracer tracer = sTracer;
+        if (tracer != null)
+            tracer.beginSection(name);
+    }
+
+    static void endSection() {
+        final UndoBarTracer tracer = sTracer;
+        if (tracer != null)
+            tracer.endSection();
+    }
+
+    private void enqueue(Message message) {
+        restoreSpilled();
+        if (coalesce(message))
+            return;
+        final UndoBarController slot = freeSlot();
+        if (slot == null) {
+            if (message.precomputeExecutor != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P)
+                precompute(message);
+            addMessage(message);
+        } else {
+            slot.showUndoBar(message);
+        }
+    }
+
+    /**
+     * Measure the text of a waiting message in the background, with the text metrics of this undobar
+     */
+    @RequiresApi(Build.VERSION_CODES.P)
+    private void precompute(Message message) {
+        final PrecomputedMessage task = new PrecomputedMessage(message.message, mMessageView.getTextMetricsParams());
+        message.precomputed = task;
+        message.precomputeExecutor.execute(task);
+    }
+
+    /**
+     * The message text to show, measured already if its precomputation finished in time and still fits
+     */
+    private CharSequence messageText(Message message) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && message.precomputed != null) {
+            final PrecomputedText text = message.precomputed.result(message.message, mMessageView.getTextMetricsParams());
+            if (text != null)
+                return text;
+        }
+        return message.message;
+    }
+
+    /**
+     * Show up to count undobars at once, stacked above each other.
+     * Each one has its own timer and listener, and waiting messages go to whichever slot frees up first.
+     * The number of slots only grows, smaller counts are ignored.
+     *
+     * @param count number of undobars shown at once, 1 by default
+     */
+    public void setSlots(int count) {
+        if (mOwner != null) {
+            mOwner.setSlots(count);
+            return;
+        }
+        restoreSpilled();
+        if (count - 1 <= mSlots.length)
+            return;
+        final ViewGroup parent = (ViewGroup) getParent();
+        if (parent == null)
+            throw new IllegalStateException("UndoBarController is not attached to a container");
+        final UndoBarController[] slots = Arrays.copyOf(mSlots, count - 1);
+        for (int i = mSlots.length; i < slots.length; i++) {
+            final UndoBarController slot = new UndoBarController(getContext(), null);
+            slot.mNavBarAvailable = mNavBarAvailable;
+            slot.mOwner = this;
+            slot.mSlotIndex = i + 1;
+            parent.addView(slot);
+            slots[i] = slot;
+        }
+        mSlots = slots;
+        UndoBarController slot;
+        while (!mMessages.isEmpty() && (slot = freeSlot()) != null) {
+            slot.showUndoBar(mMessages.poll());
+        }
+    }
+
+    /**
+     * The lowest slot not showing an undobar, or null if all are busy
+     */
+    private UndoBarController freeSlot() {
+        if (!mShowing)
+            return this;
+        for (UndoBarController slot : mSlots) {
+            if (!slot.mShowing)
+                return slot;
+        }
+        return null;
+    }
+
+    /**
+     * Distance the undobar slides, its own height once laid out
+     */
+    private float barHeight() {
+        return getHeight() > 0 ? getHeight() : SLOT_FALLBACK_HEIGHT_DP * getResources().getDisplayMetrics().density;
+    }
+
+    private UndoBarController owner() {
+        return mOwner != null ? mOwner : this;
+    }
+
+    /**
+     * Height taken by one stacked undobar
+     */
+    private float slotHeight() {
+        final View bar = findViewById(id._undobar);
+        if (bar.getHeight() > 0) {
+            final ViewGroup.LayoutParams lp = bar.getLayoutParams();
+            final int margin = lp instanceof MarginLayoutParams ? ((MarginLayoutParams) lp).bottomMargin : 0;
+            return bar.getHeight() + margin;
+        }
+        return SLOT_FALLBACK_HEIGHT_DP * getResources().getDisplayMetrics().density;
+    }
+
+    private static void submit(Submission submission) {
+        if (sSubmissions.offer(submission)) {
+            sMainHandler.post(SCHEDULE_DRAIN);
+        }
+    }
+
+    /**
+     * Show every undobar posted from other threads, on the main thread
+     */
+    private static void drainSubmissions() {
+        beginSection("UndoBar.drainSubmissions");
+        sSubmissions.beginDrain();
+        Submission submission;
+        while ((submission = sSubmissions.poll()) != null) {
+            final Activity activity = submission.activity;
+            if (activity.isFinishing() || activity.isDestroyed()
+                    || activity.findViewById(submission.container) == null) {
+                // The recreated activity takes it over, otherwise it is reported and settled as hidden
+                if (activity.isChangingConfigurations() || sHandOffOnDestroy && activity.isFinishing()) {
+                    handOff(submission.message);
+                } else {
+                    dispatchHide(submission.message);
+                    submission.message.recycle();
+                }
+                continue;
+            }
+            final UndoBarController bar = ensureView(activity, submission.container);
+            if (submission.queueCapacity >= 0) {
+                bar.setMessageQueue(submission.queueCapacity, submission.overflowPolicy, submission.queueBudget);
+            }
+            if (submission.slots > 0) {
+                bar.setSlots(submission.slots);
+            }
+            if (submission.maxWait >= 0) {
+                bar.setMaxWait(submission.maxWait);
+            }
+            bar.enqueue(submission.message);
+        }
+        endSection();
+    }
+
+    /**
+     * Merge the message into the one on screen or the last one waiting, if they share its
+     * coalescing key and the last of them arrived within the message's window.
+     *
+     * @return true if the message was merged and must not be shown on its own
+     */
+    private boolean coalesce(Message message) {
+        if (message.coalesceKey == null)
+            return false;
+        Message target = null;
+        UndoBarController targetSlot = null;
+        if (!mMessages.isEmpty()) {
+            target = mMessages.get(mMessages.size() - 1);
+        } else {
+            // The latest undobar on screen
+            for (int i = -1; i < mSlots.length; i++) {
+                final UndoBarController slot = i < 0 ? this : mSlots[i];
+                if (slot.mShowing && (target == null || slot.currentMessage.arrival > target.arrival)) {
+                    target = slot.currentMessage;
+                    targetSlot = slot;
+                }
+            }
+        }
+        if (target == null || !message.coalesceKey.equals(target.coalesceKey)
+                || message.arrival - target.arrival > message.coalesceWindow
+                || message.committer != null && target.committer != null && message.committer != target.committer)
+            return false;
+        target.merge(message);
+        message.recycle();
+        if (target.coalesceMessageRes != 0) {
+            target.message = getResources().getQuantityString(target.coalesceMessageRes,
+                    target.count, target.count);
+        }
+        if (targetSlot != null) {
+            targetSlot.mBinder.bindText(target.message);
+            targetSlot.scheduleHide();
+        }
+        return true;
+    }
+
+    /**
+     * Bound the queue of messages waiting behind the one on screen.
+     * Messages already waiting are moved into the new queue, and the overflow policy applies to them.
+     * Dropped messages are reported to {@link AdvancedUndoListener#onHide(Parcelable)} as if they had been shown.
+     *
+     * @param capacity maximum number of waiting messages, 0 for unbounded
+     * @param policy   which messages to drop once the queue is full
+     * @param maxBytes estimated memory budget for waiting messages and their tokens, 0 for unlimited
+     */
+    public void setMessageQueue(int capacity, @NonNull OverflowPolicy policy, long maxBytes) {
+        restoreSpilled();
+        mQueueCapacity = capacity;
+        mOverflowPolicy = policy;
+        mQueueBudget = maxBytes;
+        final MessageQueue<Message> queue = newMessageQueue();
+        for (int i = 0; i < mMessages.size(); i++) {
+            queue.offer(mMessages.get(i));
+        }
+        mMessages = queue;
+    }
+
+    /**
+     * Show every message within maxWait of being posted, as far as possible. While messages wait, the undobars on
+     * screen get shorter durations and faster animations in proportion to the backlog, down to skipped animations.
+     * Undobars without a duration still stay until dismissed.
+     *
+     * @param maxWait time in ms, 0 to always use the full durations
+     */
+    public void setMaxWait(long maxWait) {
+        owner().mMaxWait = maxWait;
+    }
+
+    /**
+     * Fit the undobar about to be shown into the max wait of the messages behind it.
+     * With K slots the queue drains K undobars per duration, so the head must fit one duration into its slack
+     * and the tail n / K of them.
+     */
+    private void adaptToBacklog() {
+        final UndoBarController owner = owner();
+        final long duration = currentMessage.style.duration;
+        final int backlog = owner.mMessages.size();
+        mEffectiveDuration = duration;
+        mAnimationScale = 1f;
+        if (owner.mMaxWait <= 0 || backlog == 0 || duration <= 0)
+            return;
+        final long now = SystemClock.uptimeMillis();
+        final int slots = owner.mSlots.length + 1;
+        final long headSlack = owner.mMessages.peek().posted + owner.mMaxWait - now;
+        final long tailSlack = owner.mMessages.get(backlog - 1).posted + owner.mMaxWait - now;
+        final long budget = Math.min(headSlack * slots, tailSlack * slots / backlog);
+        if (budget >= duration)
+            return;
+        mEffectiveDuration = Math.max(MIN_ADAPTIVE_DURATION, budget);
+        mAnimationScale = Math.max(0f, (float) budget / duration);
+    }
+
+    /**
+     * Cut short the undobars on screen once the backlog no longer fits their durations
+     */
+    private void shortenForBacklog() {
+        final long now = SystemClock.uptimeMillis();
+        for (int i = -1; i < mSlots.length; i++) {
+            final UndoBarController slot = i < 0 ? this : mSlots[i];
+            if (!slot.mShowing)
+                continue;
+            final long duration = slot.mEffectiveDuration;
+            final float scale = slot.mAnimationScale;
+            slot.adaptToBacklog();
+            if (slot.mEffectiveDuration < duration) {
+                HideScheduler.schedule(slot.mHideTimeout, Math.max(0, slot.mEffectiveDuration - (now - slot.mShownAt)));
+            } else {
+                slot.mEffectiveDuration = duration;
+                slot.mAnimationScale = scale;
+            }
+        }
+    }
+
+    private boolean skipAnimation(UndoBarStyle style) {
+        return style.animatorDuration > 0 ? mAnimationScale <= 0f : mAnimationScale < MIN_ANIMATION_SCALE;
+    }
+
+    /**
+     * Cap the waiting messages kept in the saved instance state. Above it, they are written to an app-private
+     * file and read back when first needed after the restore.
+     *
+     * @param maxBytes encoded size in bytes, {@link #DEFAULT_SAVED_STATE_LIMIT} by default
+     */
+    public void setSavedStateLimit(int maxBytes) {
+        mSavedStateLimit = maxBytes;
+    }
+
+    private MessageQueue<Message> newMessageQueue() {
+        return new RingBufferMessageQueue<>(mQueueCapacity, mOverflowPolicy, mQueueBudget,
+                MESSAGE_WEIGHER, mDropListener);
+    }
+
+    private static long estimateBytes(Message message) {
+        long bytes = MESSAGE_OVERHEAD_BYTES + 2L * message.message.length();
+        // A TokenHandle costs no more than its long, its payload is not the queue's
+        if (message.undoToken != null && !(message.undoToken instanceof TokenHandle)) {
+            if (sSizingParcel == null)
+                sSizingParcel = Parcel.obtain();
+            final Parcel parcel = sSizingParcel;
+            try {
+                parcel.writeParcelable(message.undoToken, 0);
+                bytes += parcel.dataSize();
+            } finally {
+                parcel.setDataSize(0);
+            }
+        }
+        return bytes;
     }
 
     public UndoBarController(final Context context, final AttributeSet attrs) {
+        this(context, attrs, LayoutInflater.from(context));
+    }
+
+    UndoBarController(final Context context, final AttributeSet attrs, final LayoutInflater inflater) {
         super(context, attrs);
         TypedArray ta = context.getTheme().obtainStyledAttributes(new int[]{R.attr.undoBarStyle});
         int style = ta.getResourceId(0, R.style.UndoBarDefaultStyle);
@@ -114,91 +639,180 @@ public class UndoBarController extends LinearLayout {
         ta.recycle();
 
         ta = context.getTheme().obtainStyledAttributes(new int[]{R.attr.ub_inAnimation, R.attr.ub_outAnimation});
-        inAnimation = AnimationUtils.loadAnimation(context, ta.getResourceId(0, R.anim.undobar_classic_in_anim));
-        outAnimation = AnimationUtils.loadAnimation(context, ta.getResourceId(1, R.anim.undobar_classic_out_anim));
+        inAnimation = AnimationCache.get(context, style, ta.getResourceId(0, R.anim.undobar_classic_in_anim));
+        outAnimation = AnimationCache.get(context, style, ta.getResourceId(1, R.anim.undobar_classic_out_anim));
 
-        LayoutInflater.from(context).inflate(R.layout.undobar, this, true);
+        inflater.inflate(R.layout.undobar, this, true);
         ta.recycle();
 
         mMessageView = findViewById(id.undobar_message);
         mButton = findViewById(id.undobar_button);
+        mBinder = new UndoBarBinder(this, findViewById(id._undobar), mMessageView, mButton,
+                findViewById(id.undobar_divider));
         mButton.setOnClickListener(
                 view -> {
                     // #44
                     if (!mShowing)
                         return;
-                    final UndoListener listener = getUndoListener();
-                    if (listener != null) {
-                        listener.onUndo(currentMessage.undoToken);
-                    }
-                    if (currentMessage.immediate) {
-                        hideUndoBar(true);
-                    } else {
-                        hideUndoBar(false);
-                    }
+                    final Message message = currentMessage;
+                    final UndoBarMetrics metrics = sMetrics;
+                    if (metrics != null)
+                        metrics.onUndo(message.count);
+                    message.dispatching = true;
+                    dispatchUndo(message);
+                    message.dispatching = false;
+                    if (!detachedByCallback(message))
+                        hideUndoBar(message.immediate);
                 }
         );
 
         setVisibility(View.GONE);
 
-        // https://github.com/jgilfelt/SystemBarTint/blob/master/library/src/com/readystatesoftware/systembartint/SystemBarTintManager.java
+        // Device wide navigation bar facts are cached in DeviceProfile, only the theme and window are checked here
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
-            mInPortrait = (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT);
-
-            try {
-                @SuppressLint("PrivateApi") Class c = Class.forName("android.os.SystemProperties");
-                @SuppressWarnings("unchecked") Method m = c.getDeclaredMethod("get", String.class);
-                m.setAccessible(true);
-                sNavBarOverride = (String) m.invoke(null, "qemu.hw.mainkeys");
-            } catch (Throwable e) {
-                sNavBarOverride = null;
-            }
-
             // check theme attrs
             int[] as = {android.R.attr.windowTranslucentStatus,
                     android.R.attr.windowTranslucentNavigation};
             TypedArray a = context.obtainStyledAttributes(as);
             try {
-                mNavBarAvailable = a.getBoolean(1, false);
+                mTranslucentTheme = a.getBoolean(1, false);
             } finally {
                 a.recycle();
             }
+            mNavBarAvailable = mTranslucentTheme;
+            if (context instanceof Activity)
+                bindWindow((Activity) context);
+        }
+    }
 
-            // check window flags
-            assert (getContext()) != null;
-            WindowManager.LayoutParams winParams = ((Activity) getContext()).getWindow().getAttributes();
-            int bits = WindowManager.LayoutParams.FLAG_TRANSLUCENT_NAVIGATION;
-            if ((winParams.flags & bits) != 0) {
-                mNavBarAvailable = true;
-            }
-            mSmallestWidthDp = getSmallestWidthDp(wm);
+    /**
+     * Check the window flags of the activity the undobar is shown in
+     */
+    private void bindWindow(Activity activity) {
+        WindowManager.LayoutParams winParams = activity.getWindow().getAttributes();
+        int bits = WindowManager.LayoutParams.FLAG_TRANSLUCENT_NAVIGATION;
+        mNavBarAvailable = mTranslucentTheme || (winParams.flags & bits) != 0;
+    }
+
+    /**
+     * Detach an idle undobar and forget its activity's settings, so that another activity can borrow it
+     *
+     * @return false if it is not idle and must not be pooled
+     */
+    boolean resetForPool() {
+        if (mShowing || mHiding || currentMessage != null || mPendingNext != null || !mMessages.isEmpty()
+                || mRestoreFile != null)
+            return false;
+        for (UndoBarController slot : mSlots) {
+            if (slot.mShowing || slot.mHiding || slot.currentMessage != null || slot.mPendingNext != null)
+                return false;
+        }
+        for (UndoBarController slot : mSlots) {
+            detach(slot);
         }
+        mSlots = new UndoBarController[0];
+        detach(this);
+        mAnimator.cancel(0);
+        clearAnimation();
+        setTranslationY(0);
+        mBinder.bindBottomPadding(0);
+        mQueueCapacity = 0;
+        mOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+        mQueueBudget = 0;
+        mMessages = newMessageQueue();
+        mMaxWait = 0;
+        mSavedStateLimit = DEFAULT_SAVED_STATE_LIMIT;
+        mSpillFile = null;
+        return true;
+    }
+
+    private static void detach(View view) {
+        final ViewGroup parent = (ViewGroup) view.getParent();
+        if (parent != null)
+            parent.removeView(view);
     }
 
     private static UndoBarController getBar(final Activity activity, UndoBar undobar) {
-        UndoBarController undo = ensureView(activity, undobar);
+        UndoBarController undo = ensureView(activity, undobar.container);
         //undo.listener = undobar.listener;
         return undo;
     }
 
-    private static UndoBarController ensureView(Activity activity, UndoBar undobar) {
-        UndoBarController undo = UndoBarController.getView(activity);
+    private static UndoBarController ensureView(Activity activity, @IdRes int container) {
+        beginSection("UndoBar.ensureView");
+        UndoBarController undo = ControllerRegistry.get(activity, container);
         if (undo == null) {
-            undo = new UndoBarController(activity, null);
-            ((ViewGroup) activity.findViewById(undobar.container))
-                    .addView(undo);
+            final ViewGroup parent = activity.findViewById(container);
+            // An undobar declared in the layout, searched once
+            final View view = parent.findViewById(id._undobar);
+            if (view != null) {
+                undo = (UndoBarController) view.getParent();
+            } else {
+                undo = ControllerPool.acquire(activity);
+                undo.bindWindow(activity);
+                parent.addView(undo);
+            }
+            ControllerRegistry.put(activity, container, undo);
+        }
+        Message handedOff;
+        while ((handedOff = sHandedOff.poll()) != null) {
+            undo.enqueue(handedOff);
         }
+        endSection();
         return undo;
     }
 
-    private static UndoBarController getView(final Activity activity) {
-        final View view = activity.findViewById(id._undobar);
-        UndoBarController undo = null;
-        if (view != null) {
-            undo = (UndoBarController) view.getParent();
+    /**
+     * Let go of the destroyed activity: stop the timers and animations of every slot and drop the listeners of
+     * its messages, clearing the messages or handing them off, see {@link #setHandOffOnDestroy}. On a configuration
+     * change the messages in the saved state are only dropped, the new activity restores them; the others hide.
+     */
+    void unbind(Activity activity) {
+        final boolean recreating = activity.isChangingConfigurations();
+        if (!recreating && !sHandOffOnDestroy) {
+            clearMessages(DEFAULT_CLEAR_CHUNK_SIZE);
+            return;
+        }
+        restoreSpilled();
+        final Message[] heads = new Message[2 * (mSlots.length + 1)];
+        int headCount = detachForClear(heads, 0);
+        for (UndoBarController slot : mSlots) {
+            headCount = slot.detachForClear(heads, headCount);
+        }
+        for (int i = 0; i < headCount; i++) {
+            unbind(heads[i], recreating);
+        }
+        Message message;
+        while ((message = mMessages.poll()) != null) {
+            unbind(message, recreating);
+        }
+    }
+
+    private static void unbind(Message message, boolean recreating) {
+        if (recreating && message.saved) {
+            // Saved state brings it back in the new activity: drop it without any callback, so nothing
+            // is committed, journaled or released before the user had the chance to undo it
+            message.recycle();
+        } else if (sHandOffOnDestroy) {
+            handOff(message);
+        } else {
+            // Not saved by the app, so it goes with the activity as if its time was up
+            dispatchHide(message);
+            message.recycle();
         }
-        return undo;
+    }
+
+    private static void handOff(Message message) {
+        message.listener = null;
+        sHandedOff.offer(message);
+    }
+
+    /**
+     * Resolve everything the first show would otherwise load: device profile and button icon.
+     */
+    private void prewarm() {
+        DeviceProfile.get(getContext());
+        IconCache.get(getContext(), UNDOSTYLE.iconRes, mButton.getTextColors().getDefaultColor());
     }
 
     @Deprecated
@@ -210,25 +824,115 @@ public class UndoBarController extends LinearLayout {
      * @param activity The activity where the undobar in
      */
     public static void clear(@NonNull final Activity activity) {
-        final UndoBarController v = UndoBarController.getView(activity);
+        final UndoBarController v = ControllerRegistry.any(activity);
         if (v != null) {
-            v.setVisibility(View.GONE);
-            v.mShowing = false;
-            v.mHideHandler.removeCallbacks(v.mHideRunnable);
-            final UndoListener listener = v.getUndoListener();
-            if (listener instanceof AdvancedUndoListener) {
-                if (v.currentMessage == null)
-                    ((AdvancedUndoListener) listener).onClear(new Parcelable[]{});
-                else {
-                    Parcelable[] parcels = new Parcelable[v.mMessages.size() + 1];
-                    parcels[0] = v.currentMessage.undoToken;
-                    for (int i = 0; i < v.mMessages.size(); i++) {
-                        parcels[i + 1] = v.mMessages.get(i).undoToken;
-                    }
-                    ((AdvancedUndoListener) listener).onClear(parcels);
-                }
+            v.clearMessages(DEFAULT_CLEAR_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Hide the undobar immediately and drop every waiting message, in linear time.
+     * The queue is detached first, so undobars shown from the clear callbacks start afresh.
+     */
+    private void clearMessages(int chunkSize) {
+        beginSection("UndoBar.clear");
+        restoreSpilled();
+        // Messages on screen or about to be, in every slot, come before the waiting ones
+        final Message[] heads = new Message[2 * (mSlots.length + 1)];
+        int headCount = detachForClear(heads, 0);
+        for (UndoBarController slot : mSlots) {
+            headCount = slot.detachForClear(heads, headCount);
+        }
+        final MessageQueue<Message> pending = mMessages;
+        mMessages = newMessageQueue();
+        final UndoBarMetrics metrics = sMetrics;
+        if (metrics != null) {
+            int tokens = 0;
+            for (int i = 0; i < headCount; i++) {
+                tokens += heads[i].count;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                tokens += pending.get(i).count;
+            }
+            metrics.onCleared(tokens);
+        }
+        // No head when clearing from the callbacks of the only message on screen
+        final UndoListener listener = headCount > 0 ? heads[0].listener
+                : pending.isEmpty() ? null : pending.get(0).listener;
+        if (listener instanceof StreamingUndoListener) {
+            new ClearStream((StreamingUndoListener) listener, heads, headCount, pending, chunkSize).run();
+            endSection();
+            return;
+        }
+        Parcelable[] parcels = null;
+        int index = 0;
+        if (listener instanceof AdvancedUndoListener) {
+            int count = 0;
+            for (int i = 0; i < headCount; i++) {
+                count += heads[i].count;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                count += pending.get(i).count;
             }
+            parcels = new Parcelable[count];
+        }
+        for (int i = 0; i < headCount; i++) {
+            if (parcels != null)
+                index = heads[i].copyTokens(parcels, index);
+            else
+                releaseTokens(heads[i]);
+            settle(heads[i]);
+            heads[i].recycle();
         }
+        Message message;
+        while ((message = pending.poll()) != null) {
+            if (parcels != null)
+                index = message.copyTokens(parcels, index);
+            else
+                releaseTokens(message);
+            settle(message);
+            message.recycle();
+        }
+        if (parcels != null) {
+            ((AdvancedUndoListener) listener).onClear(parcels);
+            for (Parcelable token : parcels) {
+                release(token);
+            }
+        }
+        endSection();
+    }
+
+    /**
+     * Hide this slot immediately, moving its messages into heads
+     *
+     * @return the new number of heads
+     */
+    private int detachForClear(Message[] heads, int count) {
+        final Animation animation = getAnimation();
+        if (animation != null) {
+            animation.setAnimationListener(null);
+            clearAnimation();
+        }
+        mAnimator.cancel(mRestTranslationY);
+        setVisibility(View.GONE);
+        mShowing = false;
+        HideScheduler.cancel(mHideTimeout);
+        if (mHiding) {
+            // Already reported as hidden
+            mHiding = false;
+            releaseCurrentMessage();
+        }
+        if (currentMessage != null) {
+            // Already reported if its undo or hide callbacks are running
+            if (!currentMessage.dispatching)
+                heads[count++] = currentMessage;
+            currentMessage = null;
+        }
+        if (mPendingNext != null) {
+            heads[count++] = mPendingNext;
+            mPendingNext = null;
+        }
+        return count;
     }
 
     private static boolean isTablet(Context context) {
@@ -250,69 +954,55 @@ public class UndoBarController extends LinearLayout {
 //            UndoBarController.outAnimation = outAnimation;
 //    }
 
-    @SuppressLint("NewApi")
-    private float getSmallestWidthDp(WindowManager wm) {
-        DisplayMetrics metrics = new DisplayMetrics();
-        wm.getDefaultDisplay().getRealMetrics(metrics);
-        float widthDp = metrics.widthPixels / metrics.density;
-        float heightDp = metrics.heightPixels / metrics.density;
-        return Math.min(widthDp, heightDp);
-    }
-
-    @TargetApi(14)
-    private int getNavigationBarHeight(Context context) {
-        Resources res = context.getResources();
-        int result = 0;
-        if (hasNavBar(context)) {
-            String key;
-            if (mInPortrait) {
-                key = NAV_BAR_HEIGHT_RES_NAME;
-            } else {
-                if (!isNavigationAtBottom())
-                    return 0;
-                key = NAV_BAR_HEIGHT_LANDSCAPE_RES_NAME;
-            }
-            return getInternalDimensionSize(res, key);
+    private static void dispatchUndo(Message message) {
+        final UndoJournal journal = UndoJournal.get();
+        for (int i = 0; i < message.count; i++) {
+            if (message.listener != null)
+                message.listener.onUndo(message.token(i));
+            release(message.token(i));
+            if (journal != null && message.journalId(i) != 0)
+                journal.undone(message.journalId(i));
         }
-        return result;
     }
 
-    @TargetApi(14)
-    private boolean hasNavBar(Context context) {
-        Resources res = context.getResources();
-        int resourceId = res.getIdentifier(SHOW_NAV_BAR_RES_NAME, "bool", "android");
-        if (resourceId != 0) {
-            boolean hasNav = res.getBoolean(resourceId);
-            // check override flag (see static block)
-            if ("1".equals(sNavBarOverride)) {
-                hasNav = false;
-            } else if ("0".equals(sNavBarOverride)) {
-                hasNav = true;
+    private static void dispatchHide(Message message) {
+        if (message.listener instanceof AdvancedUndoListener) {
+            for (int i = 0; i < message.count; i++) {
+                ((AdvancedUndoListener) message.listener).onHide(message.token(i));
             }
-            return hasNav;
-        } else { // fallback
-            return !ViewConfiguration.get(context).hasPermanentMenuKey();
         }
+        releaseTokens(message);
+        settle(message);
     }
 
-    private int getInternalDimensionSize(Resources res, String key) {
-        int result = 0;
-        int resourceId = res.getIdentifier(key, "dimen", "android");
-        if (resourceId > 0) {
-            result = res.getDimensionPixelSize(resourceId);
+    private static void releaseTokens(Message message) {
+        for (int i = 0; i < message.count; i++) {
+            release(message.token(i));
         }
-        return result;
     }
 
     /**
-     * Should a navigation bar appear at the bottom of the screen in the current
-     * device configuration? A navigation bar may appear on the right side of
-     * the screen in certain configurations.
-     *
-     * @return True if navigation should appear at the bottom of the screen, False otherwise.
+     * Drop the payload of a {@link TokenHandle} once its callbacks have returned
+     */
+    private static void release(Parcelable token) {
+        if (token instanceof TokenHandle)
+            ((TokenHandle) token).release();
+    }
+
+    /**
+     * Stage the operations and journal the outcome of a message that can no longer be undone
      */
-    private boolean isNavigationAtBottom() {
-        return (mSmallestWidthDp >= 600 || mInPortrait);
+    private static void settle(Message message) {
+        final UndoJournal journal = UndoJournal.get();
+        for (int i = 0; i < message.count; i++) {
+            if (message.committer != null) {
+                final Object operation = message.operation(i);
+                if (operation != null)
+                    message.committer.stage(operation);
+            }
+            if (journal != null && message.journalId(i) != 0)
+                journal.hidden(message.journalId(i));
+        }
     }
 
     /**
@@ -325,69 +1015,281 @@ public class UndoBarController extends LinearLayout {
         return currentMessage.listener;
     }
 
-    private void hideUndoBar(final boolean immediate) {
-        mHideHandler.removeCallbacks(mHideRunnable);
-        final Message next = mMessages.poll();
+    private void hideUndoBar(final boolean hideImmediately) {
+        beginSection("UndoBar.hide");
+        HideScheduler.cancel(mHideTimeout);
+        final UndoBarStyle style = currentMessage.style;
+        final boolean immediate = hideImmediately || skipAnimation(style);
+        if (!immediate && style.animatorDuration > 0) {
+            // The slot is free from now on; the next message is taken once the slide ends
+            mShowing = false;
+            mHiding = true;
+            mHideStartedAt = SystemClock.uptimeMillis();
+            mAnimator.hide(mRestTranslationY, barHeight(), (long) (style.animatorDuration * mAnimationScale),
+                    style.outInterpolator != null ? style.outInterpolator : DEFAULT_OUT_INTERPOLATOR, mHiddenAction);
+            endSection();
+            return;
+        }
+        owner().restoreSpilled();
+        final Message next = owner().mMessages.poll();
         if (immediate) {
-            setVisibility(View.GONE);
-            currentMessage = null;
+            mAnimator.cancel(mRestTranslationY);
+            // Stays visible for the next message, toggling visibility would relayout the bar
+            if (next == null)
+                setVisibility(View.GONE);
+            releaseCurrentMessage();
             mShowing = false;
             if (next != null)
                 showUndoBar(next);
         } else {
             clearAnimation();
             Animation anim;
-            if (currentMessage.style.outAnimation != null)
-                anim = (currentMessage.style.outAnimation);
-            else
-                anim = (outAnimation);
-            anim.setAnimationListener(new Animation.AnimationListener() {
-                @Override
-                public void onAnimationStart(Animation animation) {
-
+            if (currentMessage.style.outAnimation != null) {
+                if (currentMessage.style.outAnimation != mStyleOut) {
+                    mStyleOut = currentMessage.style.outAnimation;
+                    mStyleOutCopy = AnimationCache.copyOf(mStyleOut);
                 }
+                anim = mStyleOutCopy;
+            } else {
+                anim = outAnimation;
+            }
+            mPendingNext = next;
+            mHideStartedAt = SystemClock.uptimeMillis();
+            anim.setAnimationListener(mOutAnimationListener);
+            startAnimation(anim);
+            setVisibility(View.GONE);
+        }
+        endSection();
+    }
 
-                @Override
-                public void onAnimationEnd(Animation animation) {
-                    currentMessage = null;
-                    mShowing = false;
-                    if (next != null)
-                        showUndoBar(next);
-                }
+    private void releaseCurrentMessage() {
+        if (currentMessage != null) {
+            // A message whose callbacks are running is recycled once they return
+            if (!currentMessage.dispatching)
+                currentMessage.recycle();
+            currentMessage = null;
+        }
+    }
+
+    /**
+     * Whether the undo or hide callbacks of the message on screen cleared it or hid the undobar themselves,
+     * recycling the message if it is no longer on screen
+     */
+    private boolean detachedByCallback(Message message) {
+        if (currentMessage != message) {
+            message.recycle();
+            return true;
+        }
+        return !mShowing;
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        DeviceProfile.invalidate();
+        AnimationCache.clear();
+        IconCache.clear();
+    }
 
-                @Override
-                public void onAnimationRepeat(Animation animation) {
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        super.onSaveInstanceState();
+        restoreSpilled();
+        final Bundle outState = new Bundle();
+        // Undobars on screen in extra slots are restored as the first waiting ones
+        Message current = mHiding ? null : currentMessage;
+        int onScreen = 0;
+        for (UndoBarController slot : mSlots) {
+            if (slot.currentMessage != null && !slot.mHiding)
+                onScreen++;
+        }
+        final int count = mMessages.size();
+        // Nothing on screen but sliding out, the first waiting one is restored on screen
+        final int first = current == null && onScreen == 0 && count > 0 ? 1 : 0;
+        if (first > 0)
+            current = mMessages.get(0);
+        if (current == null && onScreen > 0)
+            onScreen--;
+        final Message[] messages = new Message[onScreen + count - first];
+        int index = 0;
+        for (UndoBarController slot : mSlots) {
+            if (slot.currentMessage == null || slot.mHiding)
+                continue;
+            if (current == null)
+                current = slot.currentMessage;
+            else
+                messages[index++] = slot.currentMessage;
+        }
+        for (int i = first; i < count; i++) {
+            messages[index++] = mMessages.get(i);
+        }
+        if (mSpillFile != null) {
+            mSpillFile.delete();
+            mSpillFile = null;
+        }
+        final byte[] encoded = encodeMessages(messages);
+        if (encoded.length > mSavedStateLimit) {
+            mSpillFile = spill(encoded);
+        }
+        if (mSpillFile != null)
+            outState.putString(SAVED_STATE_FILE, mSpillFile.getPath());
+        else
+            outState.putByteArray(SAVED_STATE, encoded);
+        for (Message message : messages) {
+            message.saved = true;
+        }
+        if (current != null) {
+            current.saved = true;
+            // The bundle may be restored in process, after this message was recycled
+            current = current.snapshot();
+        }
+        outState.putParcelable(STATE_CURRENT_MESSAGE, current);
+        return outState;
+    }
+
+    /**
+     * Write encoded messages to a new app-private file
+     *
+     * @return the file, or null if it could not be written
+     */
+    private File spill(byte[] encoded) {
+        final File dir = new File(getContext().getNoBackupFilesDir(), SPILL_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            return null;
+        final File[] stale = dir.listFiles();
+        if (stale != null) {
+            final long now = System.currentTimeMillis();
+            for (File file : stale) {
+                if (now - file.lastModified() > SPILL_MAX_AGE)
+                    file.delete();
+            }
+        }
+        final File file = new File(dir, "state-" + System.nanoTime());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(encoded);
+            return file;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save undobar state", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Read back waiting messages saved to a file, ahead of any message queued since the restore
+     */
+    private void restoreSpilled() {
+        final File file = mRestoreFile;
+        if (file == null)
+            return;
+        mRestoreFile = null;
+        final byte[] encoded;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            encoded = new byte[(int) in.length()];
+            in.readFully(encoded);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot restore undobar state", e);
+            return;
+        } finally {
+            file.delete();
+        }
+        final MessageQueue<Message> queued = mMessages;
+        mMessages = newMessageQueue();
+        for (Message message : decodeMessages(encoded)) {
+            mMessages.offer(message);
+        }
+        Message message;
+        while ((message = queued.poll()) != null) {
+            mMessages.offer(message);
+        }
+    }
 
+    /**
+     * Encode messages with every distinct style and token written once and referenced by index
+     */
+    private static byte[] encodeMessages(Message[] messages) {
+        final IdentityHashMap<Object, Integer> index = new IdentityHashMap<>();
+        final ArrayList<UndoBarStyle> styles = new ArrayList<>();
+        final ArrayList<Parcelable> tokens = new ArrayList<>();
+        for (Message message : messages) {
+            if (!index.containsKey(message.style)) {
+                index.put(message.style, styles.size());
+                styles.add(message.style);
+            }
+            for (int i = 0; i < message.count; i++) {
+                final Parcelable token = message.token(i);
+                if (token != null && !(token instanceof TokenHandle) && !index.containsKey(token)) {
+                    index.put(token, tokens.size());
+                    tokens.add(token);
                 }
-            });
-            startAnimation(anim);
-            setVisibility(View.GONE);
+            }
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(styles.size());
+            for (UndoBarStyle style : styles) {
+                parcel.writeParcelable(style, 0);
+            }
+            parcel.writeInt(tokens.size());
+            for (Parcelable token : tokens) {
+                parcel.writeParcelable(token, 0);
+            }
+            parcel.writeInt(messages.length);
+            for (Message message : messages) {
+                message.writeCompact(parcel, index);
+            }
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
         }
     }
 
-    @Override
-    protected Parcelable onSaveInstanceState() {
-        super.onSaveInstanceState();
-        final Bundle outState = new Bundle();
-        final int count = mMessages.size();
-        final Message[] messages = new Message[count];
-        mMessages.toArray(messages);
-        outState.putParcelableArray(SAVED_STATE, messages);
-        outState.putParcelable(STATE_CURRENT_MESSAGE, currentMessage);
-        return outState;
+    private static Message[] decodeMessages(byte[] encoded) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(encoded, 0, encoded.length);
+            parcel.setDataPosition(0);
+            final UndoBarStyle[] styles = new UndoBarStyle[parcel.readInt()];
+            for (int i = 0; i < styles.length; i++) {
+                styles[i] = parcel.readParcelable(UndoBarStyle.class.getClassLoader());
+            }
+            final Parcelable[] tokens = new Parcelable[parcel.readInt()];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = parcel.readParcelable(Parcelable.class.getClassLoader());
+            }
+            final Message[] messages = new Message[parcel.readInt()];
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = Message.readCompact(parcel, styles, tokens);
+            }
+            return messages;
+        } finally {
+            parcel.recycle();
+        }
     }
 
 
     @Override
     protected void onRestoreInstanceState(final Parcelable state) {
         if (state instanceof Bundle) {
-            currentMessage = ((Bundle) state).getParcelable(STATE_CURRENT_MESSAGE);
-            if (currentMessage != null) {
-                Parcelable[] messages = ((Bundle) state).getParcelableArray(SAVED_STATE);
-                for (Parcelable p : messages) {
-                    mMessages.add((Message) p);
+            final Bundle bundle = (Bundle) state;
+            currentMessage = bundle.getParcelable(STATE_CURRENT_MESSAGE);
+            final byte[] encoded = bundle.getByteArray(SAVED_STATE);
+            if (encoded != null) {
+                for (Message message : decodeMessages(encoded)) {
+                    mMessages.offer(message);
                 }
             }
+            final String path = bundle.getString(SAVED_STATE_FILE);
+            if (path != null) {
+                mRestoreFile = new File(path);
+                // Read it while idle unless it is needed earlier
+                Looper.myQueue().addIdleHandler(() -> {
+                    restoreSpilled();
+                    return false;
+                });
+            }
+            if (currentMessage == null)
+                currentMessage = mMessages.poll();
             return;
         }
         super.onRestoreInstanceState(state);
@@ -395,71 +1297,159 @@ public class UndoBarController extends LinearLayout {
 
     @SuppressWarnings("ConstantConditions")
     private void showUndoBar(@NonNull Message msg) {
-        currentMessage = msg;
-        mMessageView.setText(currentMessage.message, TextView.BufferType.SPANNABLE);
-        if (currentMessage.style.titleRes > 0) {
-            mButton.setVisibility(View.VISIBLE);
-            findViewById(id.undobar_divider).setVisibility(View.VISIBLE);
-            mButton.setText(currentMessage.style.titleRes);
-            if (currentMessage.noIcon) {
-                mButton.setCompoundDrawablesWithIntrinsicBounds(null, null, null, null);
-            } else if (currentMessage.style.iconRes > 0) {
-                int iColor = mButton.getTextColors().getDefaultColor();
-                mButton.setCompoundDrawablesWithIntrinsicBounds(null, null, null,null);
-                try {
-                    Drawable drawable = getResources().getDrawable(currentMessage.style.iconRes);
-                    if (currentMessage.colorDrawable) {
-                        int red = (iColor & 0xFF0000) / 0xFFFF;
-                        int green = (iColor & 0xFF00) / 0xFF;
-                        int blue = iColor & 0xFF;
-
-                        float[] matrix = {0, 0, 0, 0, red
-                                , 0, 0, 0, 0, green
-                                , 0, 0, 0, 0, blue
-                                , 0, 0, 0, 1, 0};
-
-                        ColorFilter colorFilter = new ColorMatrixColorFilter(matrix);
-
-                        drawable.setColorFilter(colorFilter);
-                        mButton.setCompoundDrawablesWithIntrinsicBounds(drawable, null, null, null);
-                    }
-                } catch (Exception ignored) {
-
-                }
-
-
-            }
-        } else {
-            mButton.setVisibility(View.GONE);
-            findViewById(id.undobar_divider).setVisibility(View.GONE);
+        beginSection("UndoBar.show");
+        if (mHiding) {
+            // Interrupt the slide out, the new undobar slides back from there
+            mHiding = false;
+            releaseCurrentMessage();
         }
+        currentMessage = msg;
+        final UndoBarMetrics metrics = sMetrics;
+        if (metrics != null)
+            metrics.onShown(SystemClock.uptimeMillis() - msg.posted);
+        mShownAt = SystemClock.uptimeMillis();
+        adaptToBacklog();
+        mRestTranslationY = mOwner != null ? -mSlotIndex * mOwner.slotHeight() : 0;
+        beginSection("UndoBar.setText");
+        mBinder.bindText(messageText(currentMessage));
+        endSection();
+        mBinder.bindButton(currentMessage.style, currentMessage.noIcon, currentMessage.colorDrawable);
         if (currentMessage.style.bgRes > 0)
-            findViewById(id._undobar).setBackgroundResource(currentMessage.style.bgRes);
+            mBinder.bindBackground(currentMessage.style.bgRes);
 
-        mHideHandler.removeCallbacks(mHideRunnable);
-        if (currentMessage.style.duration > 0) {
-            mHideHandler.postDelayed(mHideRunnable, currentMessage.style.duration);
-        }
-        if (!currentMessage.immediate) {
+        scheduleHide();
+        final UndoBarStyle style = currentMessage.style;
+        final boolean animate = !currentMessage.immediate && !skipAnimation(style);
+        if (animate && style.animatorDuration > 0) {
             clearAnimation();
-            if (currentMessage.style.inAnimation != null)
-                startAnimation(currentMessage.style.inAnimation);
-            else
-                startAnimation(inAnimation);
+            mShowStartedAt = SystemClock.uptimeMillis();
+            mAnimator.show(mRestTranslationY, barHeight(), (long) (style.animatorDuration * mAnimationScale),
+                    style.inInterpolator != null ? style.inInterpolator : DEFAULT_IN_INTERPOLATOR, mShownAction);
+        } else {
+            mAnimator.cancel(mRestTranslationY);
+            if (mOwner != null)
+                setTranslationY(mRestTranslationY);
+            if (animate) {
+                clearAnimation();
+                final Animation anim;
+                if (style.inAnimation != null) {
+                    if (style.inAnimation != mStyleIn) {
+                        mStyleIn = style.inAnimation;
+                        mStyleInCopy = AnimationCache.copyOf(mStyleIn);
+                    }
+                    anim = mStyleInCopy;
+                } else {
+                    anim = inAnimation;
+                }
+                mShowStartedAt = SystemClock.uptimeMillis();
+                anim.setAnimationListener(mInAnimationListener);
+                startAnimation(anim);
+            }
         }
         setVisibility(View.VISIBLE);
         mShowing = true;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && currentMessage.translucent != 0) {
             if (currentMessage.translucent == 1 || mNavBarAvailable) {
-                setPadding(0, 0, 0, getNavigationBarHeight(getContext()));
+                mBinder.bindBottomPadding(DeviceProfile.get(getContext()).navigationBarHeight);
+            }
+        }
+        endSection();
+    }
+
+    /**
+     * Text layout of a waiting message, measured on an executor. Belongs to one message text, so a result that
+     * arrives after the message was merged or recycled is never used.
+     */
+    @RequiresApi(Build.VERSION_CODES.P)
+    private static final class PrecomputedMessage implements Runnable {
+        private final CharSequence text;
+        private final PrecomputedText.Params params;
+        private volatile PrecomputedText result;
+
+        private PrecomputedMessage(CharSequence text, PrecomputedText.Params params) {
+            this.text = text;
+            this.params = params;
+        }
+
+        @Override
+        public void run() {
+            result = PrecomputedText.create(text, params);
+        }
+
+        /**
+         * The measured text, or null if it is not ready or no longer matches the text or the view
+         */
+        private PrecomputedText result(CharSequence text, PrecomputedText.Params params) {
+            final PrecomputedText result = this.result;
+            if (result == null || text != this.text || !params.equals(this.params))
+                return null;
+            return result;
+        }
+    }
+
+    /**
+     * Delivers the tokens of a cleared queue in fixed size chunks, one chunk per main loop turn.
+     */
+    private final class ClearStream implements Runnable {
+        private final StreamingUndoListener listener;
+        private final Message[] heads;
+        private final int headCount;
+        private final MessageQueue<Message> pending;
+        private final Parcelable[] buffer;
+        private int headIndex;
+        private Message message;
+        private int tokenIndex;
+
+        private ClearStream(StreamingUndoListener listener, Message[] heads, int headCount,
+                            MessageQueue<Message> pending, int chunkSize) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+            this.listener = listener;
+            this.heads = heads;
+            this.headCount = headCount;
+            this.pending = pending;
+            this.message = nextMessage();
+            this.buffer = new Parcelable[Math.min(chunkSize, message.count + headCount + pending.size())];
+        }
+
+        private Message nextMessage() {
+            return headIndex < headCount ? heads[headIndex++] : pending.poll();
+        }
+
+        @Override
+        public void run() {
+            int count = 0;
+            while (message != null && count < buffer.length) {
+                buffer[count++] = message.token(tokenIndex++);
+                if (tokenIndex == message.count) {
+                    settle(message);
+                    message.recycle();
+                    message = nextMessage();
+                    tokenIndex = 0;
+                }
+            }
+            final boolean last = message == null;
+            listener.onClear(buffer, count, last);
+            for (int i = 0; i < count; i++) {
+                release(buffer[i]);
             }
+            if (!last)
+                mHideHandler.post(this);
+        }
+    }
+
+    private void scheduleHide() {
+        HideScheduler.cancel(mHideTimeout);
+        if (mEffectiveDuration > 0) {
+            HideScheduler.schedule(mHideTimeout, mEffectiveDuration);
         }
     }
 
     public interface UndoListener {
 
         /**
-         * The callback function will be called when user press button in Undobar
+         * The callback function will be called when user press button in Undobar.
+         * For a coalesced undobar it is called once for every merged token.
          */
         void onUndo(@Nullable Parcelable token);
     }
@@ -470,6 +1460,7 @@ public class UndoBarController extends LinearLayout {
     public interface AdvancedUndoListener extends UndoListener {
         /**
          * The callback function will be called when the Undobar fade out after duration without button clicked.
+         * For a coalesced undobar it is called once for every merged token.
          */
         void onHide(@Nullable Parcelable token);
 
@@ -479,12 +1470,32 @@ public class UndoBarController extends LinearLayout {
         void onClear(@NonNull Parcelable[] token);
     }
 
+    /**
+     * Callback listener receiving cleared tokens in chunks instead of one array.
+     * Use it when thousands of undobars may be waiting at the time clear is called.
+     */
+    public interface StreamingUndoListener extends AdvancedUndoListener {
+        /**
+         * Called instead of {@link #onClear(Parcelable[])}, once per chunk of cleared tokens.
+         * Chunks after the first are delivered on later main loop turns.
+         *
+         * @param tokens buffer holding the chunk, reused between calls so do not keep it
+         * @param count  number of tokens in the chunk
+         * @param last   whether this is the final chunk
+         */
+        void onClear(@NonNull Parcelable[] tokens, int count, boolean last);
+    }
+
 
     /**
      * UndoBar Builder
      */
     public static class UndoBar implements Parcelable {
 
+        /**
+         * Default time in milliseconds within which messages with the same coalescing key are merged
+         */
+        public static final long DEFAULT_COALESCE_WINDOW = 1500;
 
         private Activity activity;
         private UndoListener listener;
@@ -493,15 +1504,32 @@ public class UndoBarController extends LinearLayout {
         private CharSequence message;
         private long duration;
         private Parcelable undoToken;
+        private Object payload;
 
         private int translucent = -1;
         private boolean colorDrawable = true;
         private boolean noIcon = false;
         public boolean immediate;
 
+        private String coalesceKey;
+        private long coalesceWindow = DEFAULT_COALESCE_WINDOW;
+        @PluralsRes
+        private int coalesceMessageRes;
+
+        // Not parcelled, see DeferredCommitter
+        private DeferredCommitter<?> committer;
+        private Object operation;
+        private Executor precomputeExecutor;
+
         @IdRes
         private int container = android.R.id.content;
 
+        private int slots;
+        private long maxWait = -1;
+        private int queueCapacity = -1;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private long queueBudget;
+
 
         public UndoBar(@NonNull Activity activity) {
             this.activity = activity;
@@ -512,11 +1540,16 @@ public class UndoBarController extends LinearLayout {
             message = null;
             duration = 0;
             undoToken = null;
+            payload = null;
 
             translucent = -1;
             colorDrawable = true;
             noIcon = false;
             immediate = false;
+
+            coalesceKey = null;
+            coalesceWindow = DEFAULT_COALESCE_WINDOW;
+            coalesceMessageRes = 0;
         }
 
         public UndoBar style(@NonNull UndoBarStyle style) {
@@ -547,6 +1580,17 @@ public class UndoBarController extends LinearLayout {
             return this;
         }
 
+        /**
+         * Measure the text of messages that have to wait in the queue on the executor, so that showing them only
+         * attaches the finished layout. Worth it for long or styled messages, needs Android 9, ignored before.
+         *
+         * @param executor runs the text measurement, null to measure on the main thread when shown (default)
+         */
+        public UndoBar precompute(@Nullable Executor executor) {
+            this.precomputeExecutor = executor;
+            return this;
+        }
+
         /**
          * Sets the duration the undo bar will be shown.<br>
          * Default is defined in style
@@ -570,12 +1614,69 @@ public class UndoBarController extends LinearLayout {
             return this;
         }
 
+        /**
+         * Attach the operation this undobar stands for. It is dropped on undo and handed to the committer
+         * once the undobar hides or is cleared. Applies to the next shown undobar only.
+         *
+         * @param committer commits the operation in the background, batched and compacted with others
+         * @param operation e.g. the delete the undobar offers to undo
+         */
+        public <T> UndoBar commit(@NonNull DeferredCommitter<T> committer, @NonNull T operation) {
+            this.committer = committer;
+            this.operation = operation;
+            return this;
+        }
+
 
         /**
          * Sets a token for undobar which will be returned in listener
          */
         public UndoBar token(@NonNull Parcelable undoToken) {
             this.undoToken = undoToken;
+            this.payload = null;
+            return this;
+        }
+
+        /**
+         * Sets an in-process token, kept in memory instead of being parcelled.
+         * The listener receives a {@link TokenHandle}, resolve the payload with {@link TokenHandle#get()}.
+         */
+        public UndoBar payload(@NonNull Object payload) {
+            this.payload = payload;
+            this.undoToken = null;
+            return this;
+        }
+
+        /**
+         * Merge this undobar with the one on screen or the last one waiting if they share the key
+         * and arrive within {@link #DEFAULT_COALESCE_WINDOW} of each other.
+         * A merged undobar keeps every token and delivers all of them to the listener.
+         *
+         * @param key coalescing key, e.g. the kind of operation
+         */
+        public UndoBar coalesce(@NonNull String key) {
+            return coalesce(key, DEFAULT_COALESCE_WINDOW);
+        }
+
+        /**
+         * Merge this undobar with the one on screen or the last one waiting if they share the key
+         * and arrive within the window of each other.
+         *
+         * @param key    coalescing key, e.g. the kind of operation
+         * @param window time in milliseconds since the last merged message
+         */
+        public UndoBar coalesce(@NonNull String key, long window) {
+            this.coalesceKey = key;
+            this.coalesceWindow = window;
+            return this;
+        }
+
+        /**
+         * Message shown once undobars have been merged, formatted with the number of merged items.
+         * e.g. "%d items deleted"
+         */
+        public UndoBar coalesceMessage(@PluralsRes int pluralsRes) {
+            this.coalesceMessageRes = pluralsRes;
             return this;
         }
 
@@ -605,6 +1706,56 @@ public class UndoBarController extends LinearLayout {
          * @param anim show animation or not
          */
         public UndoBarController show(boolean anim) {
+            prepare(anim);
+            UndoBarController bar = UndoBarController.getBar(activity, this);
+            if (queueCapacity >= 0) {
+                bar.setMessageQueue(queueCapacity, overflowPolicy, queueBudget);
+                queueCapacity = -1;
+            }
+            if (slots > 0) {
+                bar.setSlots(slots);
+                slots = 0;
+            }
+            if (maxWait >= 0) {
+                bar.setMaxWait(maxWait);
+                maxWait = -1;
+            }
+            bar.enqueue(obtainMessage());
+            init();
+            return bar;
+        }
+
+        /**
+         * Show undobar from any thread.
+         * Undobars posted from background threads are handed to the main thread through a lock-free
+         * queue and shown together on the next frame. On the main thread this is the same as {@link #show(boolean)}.
+         *
+         * @param anim show animation or not
+         */
+        public void post(boolean anim) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                show(anim);
+                return;
+            }
+            prepare(anim);
+            submit(new Submission(activity, container, queueCapacity, overflowPolicy, queueBudget, slots, maxWait,
+                    obtainMessage()));
+            queueCapacity = -1;
+            slots = 0;
+            maxWait = -1;
+            init();
+        }
+
+        /**
+         * Show undobar with animation from any thread.
+         *
+         * @see #post(boolean)
+         */
+        public void post() {
+            post(true);
+        }
+
+        private void prepare(boolean anim) {
             if (listener == null && style == null) {
                 style = MESSAGESTYLE;
             }
@@ -616,14 +1767,100 @@ public class UndoBarController extends LinearLayout {
                 style.duration = duration;
             }
             immediate = !anim;
-            UndoBarController bar = UndoBarController.getBar(activity, this);
-            Message msg = new Message(style, message, duration, undoToken, translucent, colorDrawable, noIcon, immediate, listener);
-            if (bar.mShowing)
-                bar.addMessage(msg);
-            else
-                bar.showUndoBar(msg);
-            init();
-            return bar;
+        }
+
+        private Message obtainMessage() {
+            // Every undobar gets its own handle, released with its callbacks
+            final Parcelable token = payload != null ? TokenHandle.register(payload) : undoToken;
+            Message msg = Message.obtain(style, message, duration, token, translucent, colorDrawable, noIcon, immediate, listener);
+            msg.coalesceKey = coalesceKey;
+            msg.coalesceWindow = coalesceWindow;
+            msg.coalesceMessageRes = coalesceMessageRes;
+            msg.committer = committer;
+            msg.operation = operation;
+            msg.precomputeExecutor = precomputeExecutor;
+            final UndoJournal journal = UndoJournal.get();
+            // A payload does not outlive the process, nothing to replay
+            if (journal != null && undoToken != null && payload == null)
+                msg.journalId = journal.enqueued(undoToken);
+            committer = null;
+            operation = null;
+            return msg;
+        }
+
+        /**
+         * Bound the queue of messages waiting to be shown in this activity.
+         * The setting sticks to the undobar once it has been shown.
+         *
+         * @param capacity maximum number of waiting messages, 0 for unbounded
+         * @param policy   which messages to drop once the queue is full
+         * @see UndoBarController#setMessageQueue(int, OverflowPolicy, long)
+         */
+        public UndoBar queue(int capacity, @NonNull OverflowPolicy policy) {
+            this.queueCapacity = capacity;
+            this.overflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Show up to count undobars in this activity at once, stacked above each other.
+         * The setting sticks to the undobar once it has been shown.
+         *
+         * @see UndoBarController#setSlots(int)
+         */
+        public UndoBar slots(int count) {
+            this.slots = count;
+            return this;
+        }
+
+        /**
+         * Shorten undobars while messages wait, so that each shows within maxWait of being posted.
+         * The setting sticks to the undobar once it has been shown.
+         *
+         * @see UndoBarController#setMaxWait(long)
+         */
+        public UndoBar maxWait(long maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        /**
+         * Sets an estimated memory budget in bytes for waiting messages and their tokens, 0 for unlimited.
+         *
+         * @see UndoBarController#setMessageQueue(int, OverflowPolicy, long)
+         */
+        public UndoBar queueBudget(long maxBytes) {
+            this.queueBudget = maxBytes;
+            if (queueCapacity < 0)
+                queueCapacity = 0;
+            return this;
+        }
+
+        /**
+         * Create the undobar of the activity the next time its main thread is idle, so the first
+         * show only has to bind the message. Call it after setContentView(), from the main thread.
+         */
+        public static void prewarm(@NonNull Activity activity) {
+            new UndoBar(activity).prewarm();
+        }
+
+        /**
+         * Create the undobar in the configured container the next time the main thread is idle.
+         *
+         * @see #prewarm(Activity)
+         */
+        public UndoBar prewarm() {
+            final Activity activity = this.activity;
+            final int container = this.container;
+            Looper.myQueue().addIdleHandler(() -> {
+                if (!activity.isFinishing() && !activity.isDestroyed()
+                        && ControllerRegistry.get(activity, container) == null
+                        && activity.findViewById(container) != null) {
+                    UndoBarController.ensureView(activity, container).prewarm();
+                }
+                return false;
+            });
+            return this;
         }
 
         public UndoBar setContainer(@IdRes final int container) {
@@ -658,6 +1895,17 @@ public class UndoBarController extends LinearLayout {
             UndoBarController.clear(activity);
         }
 
+        /**
+         * Hide all undo bar immediately, delivering the tokens to a {@link StreamingUndoListener}
+         * in chunks of the given size
+         */
+        public void clear(int chunkSize) {
+            final UndoBarController v = ControllerRegistry.get(activity, container);
+            if (v != null) {
+                v.clearMessages(chunkSize);
+            }
+        }
+
         @Override
         public int describeContents() {
             return 0;
@@ -672,6 +1920,9 @@ public class UndoBarController extends LinearLayout {
             dest.writeInt(this.translucent);
             dest.writeByte(colorDrawable ? (byte) 1 : (byte) 0);
             dest.writeByte(noIcon ? (byte) 1 : (byte) 0);
+            dest.writeString(this.coalesceKey);
+            dest.writeLong(this.coalesceWindow);
+            dest.writeInt(this.coalesceMessageRes);
         }
 
         private UndoBar(Parcel in) {
@@ -682,6 +1933,9 @@ public class UndoBarController extends LinearLayout {
             this.translucent = in.readInt();
             this.colorDrawable = in.readByte() != 0;
             this.noIcon = in.readByte() != 0;
+            this.coalesceKey = in.readString();
+            this.coalesceWindow = in.readLong();
+            this.coalesceMessageRes = in.readInt();
         }
 
         public static final Parcelable.Creator<UndoBar> CREATOR = new Parcelable.Creator<UndoBar>() {
@@ -696,21 +1950,138 @@ public class UndoBarController extends LinearLayout {
     }
 
 
+    /**
+     * An undobar posted from a background thread, with the builder settings needed to show it
+     */
+    private static final class Submission {
+        private final Activity activity;
+        private final int container;
+        private final int queueCapacity;
+        private final OverflowPolicy overflowPolicy;
+        private final long queueBudget;
+        private final int slots;
+        private final long maxWait;
+        private final Message message;
+
+        private Submission(Activity activity, int container, int queueCapacity, OverflowPolicy overflowPolicy,
+                           long queueBudget, int slots, long maxWait, Message message) {
+            this.activity = activity;
+            this.container = container;
+            this.queueCapacity = queueCapacity;
+            this.overflowPolicy = overflowPolicy;
+            this.queueBudget = queueBudget;
+            this.slots = slots;
+            this.maxWait = maxWait;
+            this.message = message;
+        }
+    }
+
+    /**
+     * A queued undobar. Instances are pooled, obtain them with {@link #obtain} and
+     * {@link #recycle()} them once the undobar is gone.
+     */
     private static class Message implements Parcelable {
-        private final UndoBarStyle style;
-        private final CharSequence message;
-        private final long duration;
-        private final Parcelable undoToken;
-        private final int translucent;
-        private final boolean colorDrawable;
-        private final boolean noIcon;
+        private static final int MAX_POOL_SIZE = 16;
+        // Token references in the compact encoding besides table indexes
+        private static final int NO_TOKEN = -1;
+        private static final int HANDLE_TOKEN = -2;
+        private static final Object sPoolSync = new Object();
+        private static Message sPool;
+        private static int sPoolSize;
+
+        private UndoBarStyle style;
+        private CharSequence message;
+        private long duration;
+        private Parcelable undoToken;
+        private int translucent;
+        private boolean colorDrawable;
+        private boolean noIcon;
         public boolean immediate;
         private UndoListener listener;
 
+        private String coalesceKey;
+        private long coalesceWindow;
+        private int coalesceMessageRes;
+        private long arrival;
+        // Unlike arrival, not moved by coalescing
+        private long posted;
+        private int count = 1;
+        // Tokens of merged messages, after undoToken
+        private ArrayList<Parcelable> mergedTokens;
+        // Pending operations, one per token, not parcelled
+        private DeferredCommitter<?> committer;
+        private Object operation;
+        private ArrayList<Object> mergedOperations;
+        // UndoJournal ids, one per token, 0 if not journaled
+        private long journalId;
+        private long[] mergedJournalIds;
+        // Undo or hide callbacks are running, whoever detaches it leaves recycling to them
+        private boolean dispatching;
+        // Written to the saved instance state, see unbind
+        private boolean saved;
+        // Background text measurement, not parcelled
+        private Executor precomputeExecutor;
+        private PrecomputedMessage precomputed;
+        private Message next;
+        private boolean inPool;
+
+        private Message() {
+        }
+
+        private static Message obtain(UndoBarStyle style, CharSequence message, long duration, Parcelable undoToken,
+                                      int translucent, boolean colorDrawable, boolean noIcon, boolean immediate,
+                                      UndoListener listener) {
+            Message m = null;
+            synchronized (sPoolSync) {
+                if (sPool != null) {
+                    m = sPool;
+                    sPool = m.next;
+                    m.next = null;
+                    m.inPool = false;
+                    sPoolSize--;
+                }
+            }
+            if (m == null)
+                m = new Message();
+            m.set(style, message, duration, undoToken, translucent, colorDrawable, noIcon, immediate, listener);
+            return m;
+        }
+
+        /**
+         * Return this instance to the pool. It must not be used afterwards.
+         */
+        private void recycle() {
+            if (inPool)
+                throw new IllegalStateException("Message is already recycled");
+            set(null, null, 0, null, 0, false, false, false, null);
+            coalesceKey = null;
+            coalesceWindow = 0;
+            coalesceMessageRes = 0;
+            count = 1;
+            if (mergedTokens != null)
+                mergedTokens.clear();
+            committer = null;
+            operation = null;
+            if (mergedOperations != null)
+                mergedOperations.clear();
+            journalId = 0;
+            mergedJournalIds = null;
+            precomputeExecutor = null;
+            precomputed = null;
+            saved = false;
+            synchronized (sPoolSync) {
+                if (sPoolSize < MAX_POOL_SIZE) {
+                    next = sPool;
+                    sPool = this;
+                    inPool = true;
+                    sPoolSize++;
+                }
+            }
+        }
 
-        private Message(UndoBarStyle style, CharSequence message, long duration, Parcelable undoToken,
-                        int translucent, boolean colorDrawable, boolean noIcon, boolean immediate,
-                        UndoListener listener) {
+        private void set(UndoBarStyle style, CharSequence message, long duration, Parcelable undoToken,
+                         int translucent, boolean colorDrawable, boolean noIcon, boolean immediate,
+                         UndoListener listener) {
             this.style = style;
             this.message = message;
             this.duration = duration;
@@ -720,6 +2091,151 @@ public class UndoBarController extends LinearLayout {
             this.noIcon = noIcon;
             this.immediate = immediate;
             this.listener = listener;
+            this.arrival = SystemClock.uptimeMillis();
+            this.posted = arrival;
+        }
+
+        private void merge(Message other) {
+            if (mergedTokens == null)
+                mergedTokens = new ArrayList<>();
+            for (int i = 0; i < other.count; i++) {
+                mergedTokens.add(other.token(i));
+            }
+            if (other.journalId(0) != 0 || other.mergedJournalIds != null) {
+                final long[] ids = mergedJournalIds != null
+                        ? Arrays.copyOf(mergedJournalIds, count - 1 + other.count)
+                        : new long[count - 1 + other.count];
+                for (int i = 0; i < other.count; i++) {
+                    ids[count - 1 + i] = other.journalId(i);
+                }
+                mergedJournalIds = ids;
+            }
+            if (other.committer != null) {
+                if (committer == null)
+                    committer = other.committer;
+                if (mergedOperations == null)
+                    mergedOperations = new ArrayList<>();
+                // Keep operations aligned with the tokens
+                while (mergedOperations.size() < count - 1) {
+                    mergedOperations.add(null);
+                }
+                for (int i = 0; i < other.count; i++) {
+                    mergedOperations.add(other.operation(i));
+                }
+            }
+            count += other.count;
+            arrival = other.arrival;
+            if (other.coalesceMessageRes != 0)
+                coalesceMessageRes = other.coalesceMessageRes;
+            if (coalesceMessageRes == 0)
+                message = other.message;
+        }
+
+        private Parcelable token(int index) {
+            return index == 0 ? undoToken : mergedTokens.get(index - 1);
+        }
+
+        private long journalId(int index) {
+            if (index == 0)
+                return journalId;
+            return mergedJournalIds != null && index - 1 < mergedJournalIds.length ? mergedJournalIds[index - 1] : 0;
+        }
+
+        private Object operation(int index) {
+            if (index == 0)
+                return operation;
+            return mergedOperations != null && index - 1 < mergedOperations.size()
+                    ? mergedOperations.get(index - 1) : null;
+        }
+
+        /**
+         * Write this message with its style and tokens replaced by their index, see {@link #encodeMessages}
+         */
+        private void writeCompact(Parcel dest, IdentityHashMap<Object, Integer> index) {
+            dest.writeInt(index.get(style));
+            TextUtils.writeToParcel(message, dest, 0);
+            dest.writeLong(duration);
+            dest.writeInt(translucent);
+            dest.writeInt((colorDrawable ? 1 : 0) | (noIcon ? 2 : 0) | (immediate ? 4 : 0));
+            dest.writeString(coalesceKey);
+            if (coalesceKey != null) {
+                dest.writeLong(coalesceWindow);
+                dest.writeInt(coalesceMessageRes);
+            }
+            dest.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                final Parcelable token = token(i);
+                if (token instanceof TokenHandle) {
+                    dest.writeInt(HANDLE_TOKEN);
+                    dest.writeLong(((TokenHandle) token).handle());
+                } else {
+                    dest.writeInt(token != null ? index.get(token) : NO_TOKEN);
+                }
+                dest.writeLong(journalId(i));
+            }
+        }
+
+        private static Message readCompact(Parcel in, UndoBarStyle[] styles, Parcelable[] tokens) {
+            final Message m = new Message();
+            m.style = styles[in.readInt()];
+            m.message = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+            m.duration = in.readLong();
+            m.translucent = in.readInt();
+            final int flags = in.readInt();
+            m.colorDrawable = (flags & 1) != 0;
+            m.noIcon = (flags & 2) != 0;
+            m.immediate = (flags & 4) != 0;
+            m.coalesceKey = in.readString();
+            if (m.coalesceKey != null) {
+                m.coalesceWindow = in.readLong();
+                m.coalesceMessageRes = in.readInt();
+            }
+            m.count = in.readInt();
+            if (m.count > 1) {
+                m.mergedTokens = new ArrayList<>(m.count - 1);
+                m.mergedJournalIds = new long[m.count - 1];
+            }
+            for (int i = 0; i < m.count; i++) {
+                final int index = in.readInt();
+                final Parcelable token;
+                if (index == HANDLE_TOKEN)
+                    // No longer resolves if written by a previous process
+                    token = new TokenHandle(in.readLong());
+                else
+                    token = index >= 0 ? tokens[index] : null;
+                final long journalId = in.readLong();
+                if (i == 0) {
+                    m.undoToken = token;
+                    m.journalId = journalId;
+                } else {
+                    m.mergedTokens.add(token);
+                    m.mergedJournalIds[i - 1] = journalId;
+                }
+            }
+            m.arrival = SystemClock.uptimeMillis();
+            m.posted = m.arrival;
+            return m;
+        }
+
+        /**
+         * A copy sharing nothing with this message, as if parcelled across processes
+         */
+        private Message snapshot() {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                writeToParcel(parcel, 0);
+                parcel.setDataPosition(0);
+                return CREATOR.createFromParcel(parcel);
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        private int copyTokens(Parcelable[] dest, int offset) {
+            for (int i = 0; i < count; i++) {
+                dest[offset++] = token(i);
+            }
+            return offset;
         }
 
         @Override
@@ -737,6 +2253,16 @@ public class UndoBarController extends LinearLayout {
             dest.writeByte(colorDrawable ? (byte) 1 : (byte) 0);
             dest.writeByte(noIcon ? (byte) 1 : (byte) 0);
             dest.writeByte(immediate ? (byte) 1 : (byte) 0);
+            dest.writeString(this.coalesceKey);
+            dest.writeLong(this.coalesceWindow);
+            dest.writeInt(this.coalesceMessageRes);
+            dest.writeInt(this.count);
+            for (int i = 1; i < count; i++) {
+                dest.writeParcelable(token(i), 0);
+            }
+            for (int i = 0; i < count; i++) {
+                dest.writeLong(journalId(i));
+            }
         }
 
         private Message(Parcel in) {
@@ -748,6 +2274,25 @@ public class UndoBarController extends LinearLayout {
             this.colorDrawable = in.readByte() != 0;
             this.noIcon = in.readByte() != 0;
             this.immediate = in.readByte() != 0;
+            this.coalesceKey = in.readString();
+            this.coalesceWindow = in.readLong();
+            this.coalesceMessageRes = in.readInt();
+            this.count = in.readInt();
+            if (count > 1) {
+                mergedTokens = new ArrayList<>(count - 1);
+                for (int i = 1; i < count; i++) {
+                    mergedTokens.add(in.<Parcelable>readParcelable(Parcelable.class.getClassLoader()));
+                }
+            }
+            this.journalId = in.readLong();
+            if (count > 1) {
+                mergedJournalIds = new long[count - 1];
+                for (int i = 0; i < count - 1; i++) {
+                    mergedJournalIds[i] = in.readLong();
+                }
+            }
+            this.arrival = SystemClock.uptimeMillis();
+            this.posted = arrival;
         }
 
         public static final Parcelable.Creator<Message> CREATOR = new Parcelable.Creator<Message>() {
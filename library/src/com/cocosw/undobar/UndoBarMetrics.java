@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+/**
+ * Receives undobar events, see {@link UndoBarController#setMetrics(UndoBarMetrics)}.
+ * <p>
+ * Called on the main thread, from the show and hide path, so implementations must be cheap
+ * and should not allocate. {@link StripedUndoBarMetrics} is a ready-made implementation.
+ */
+public interface UndoBarMetrics {
+
+    /**
+     * A message had to wait behind the undobars on screen
+     *
+     * @param depth number of waiting messages, including this one
+     */
+    void onQueued(int depth);
+
+    /**
+     * An undobar is shown
+     *
+     * @param waitMillis time since its message was posted
+     */
+    void onShown(long waitMillis);
+
+    /**
+     * The in animation of an undobar has ended
+     */
+    void onShowAnimation(long durationMillis);
+
+    /**
+     * The out animation of an undobar has ended
+     */
+    void onHideAnimation(long durationMillis);
+
+    /**
+     * The undo button was clicked
+     *
+     * @param tokens number of tokens undone, more than one for a coalesced undobar
+     */
+    void onUndo(int tokens);
+
+    /**
+     * An undobar hid after its duration
+     */
+    void onAutoHide(int tokens);
+
+    /**
+     * A waiting message was dropped from a full queue
+     */
+    void onDropped(int tokens);
+
+    /**
+     * Undobars on screen and waiting were cleared
+     */
+    void onCleared(int tokens);
+}
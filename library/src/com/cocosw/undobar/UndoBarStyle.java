@@ -1,9 +1,11 @@
 package com.cocosw.undobar;
 
+import android.animation.TimeInterpolator;
 import android.os.Parcel;
 import android.os.Parcelable;
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import android.view.animation.Animation;
 
@@ -17,6 +19,10 @@ public class UndoBarStyle implements Parcelable {
     long duration = DEFAULT_DURATION;
     Animation inAnimation;
     Animation outAnimation;
+    // 0 to use view Animations
+    long animatorDuration;
+    TimeInterpolator inInterpolator;
+    TimeInterpolator outInterpolator;
 
 
     /**
@@ -73,6 +79,23 @@ public class UndoBarStyle implements Parcelable {
     }
 
 
+    /**
+     * Slide the undobar in and out with property animators on a hardware layer instead of view Animations.
+     * Hiding can then be interrupted by the next undobar, which slides back in from where the bar is.
+     *
+     * @param duration         duration in ms of a full slide
+     * @param inInterpolator   interpolator for sliding in, decelerating if null
+     * @param outInterpolator  interpolator for sliding out, accelerating if null
+     * @return UndoBarStyle
+     */
+    public UndoBarStyle setAnimator(long duration, @Nullable TimeInterpolator inInterpolator,
+                                    @Nullable TimeInterpolator outInterpolator) {
+        this.animatorDuration = duration;
+        this.inInterpolator = inInterpolator;
+        this.outInterpolator = outInterpolator;
+        return this;
+    }
+
     @Override
     @NonNull
     public String toString() {
@@ -83,6 +106,7 @@ public class UndoBarStyle implements Parcelable {
                 ", duration=" + duration +
                 ", inAnimation=" + inAnimation +
                 ", outAnimation=" + outAnimation +
+                ", animatorDuration=" + animatorDuration +
                 '}';
     }
 
@@ -96,6 +120,7 @@ public class UndoBarStyle implements Parcelable {
         UndoBarStyle that = (UndoBarStyle) o;
         return bgRes == that.bgRes &&
                 duration == that.duration &&
+                animatorDuration == that.animatorDuration &&
                 iconRes == that.iconRes &&
                 titleRes == that.titleRes;
     }
@@ -112,6 +137,7 @@ public class UndoBarStyle implements Parcelable {
         dest.writeInt(this.titleRes);
         dest.writeInt(this.bgRes);
         dest.writeLong(this.duration);
+        dest.writeLong(this.animatorDuration);
     }
 
     private UndoBarStyle(Parcel in) {
@@ -119,6 +145,7 @@ public class UndoBarStyle implements Parcelable {
         this.titleRes = in.readInt();
         this.bgRes = in.readInt();
         this.duration = in.readLong();
+        this.animatorDuration = in.readLong();
     }
 
     public static final Creator<UndoBarStyle> CREATOR = new Creator<UndoBarStyle>() {
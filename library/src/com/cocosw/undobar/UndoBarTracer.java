@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cocosw.undobar;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Wraps the phases of showing and hiding an undobar in trace sections,
+ * see {@link UndoBarController#setTracer(UndoBarTracer)}.
+ * <p>
+ * Sections nest and are begun and ended on the main thread. The default {@link SystemTracer} emits
+ * them to systrace and Perfetto; {@link ChromeTraceWriter} writes them to a JSON file.
+ */
+public interface UndoBarTracer {
+
+    void beginSection(@NonNull String name);
+
+    /**
+     * End the latest section begun on this thread
+     */
+    void endSection();
+}
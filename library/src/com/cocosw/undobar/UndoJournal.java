@@ -0,0 +1,318 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe journal of pending undo tokens.
+ * <p>
+ * Once {@link #enable(Context) enabled}, every token of a shown undobar is appended to a memory-mapped,
+ * append-only file, followed by a record once it is undone, hidden or cleared. Appends are plain memory
+ * writes, the kernel persists them even if the process dies right after. On the next launch
+ * {@link #replay(UndoBarController.AdvancedUndoListener, ClassLoader)} hands the tokens that never got an outcome
+ * to the app, so it can commit or roll them back.
+ * <p>
+ * The file is compacted to the outstanding tokens whenever it fills up, and reset once none is left.
+ * Tokens are stored as marshalled Parcels, readable on the same device and app version only.
+ */
+public final class UndoJournal {
+
+    private static final String TAG = "UndoJournal";
+    private static final String FILE_NAME = "undobar.journal";
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private static final int MAGIC = 0x55424a31; // "UBJ1"
+    private static final int HEADER_SIZE = 8;
+    // length, crc, type, id
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1 + 8;
+    private static final byte ENQUEUED = 1;
+    private static final byte UNDONE = 2;
+    private static final byte HIDDEN = 3;
+
+    private static volatile UndoJournal sInstance;
+
+    private final File file;
+    private final CRC32 crc = new CRC32();
+    // Outstanding tokens by id, marshalled, in journal order
+    private final LinkedHashMap<Long, byte[]> outstanding = new LinkedHashMap<>();
+    // Ids left over from the previous process, not replayed yet
+    private final LinkedHashMap<Long, byte[]> recovered = new LinkedHashMap<>();
+    private MappedByteBuffer buffer;
+    private long nextId = 1;
+
+    private UndoJournal(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Start journaling undobar tokens for this process, in the app's private files directory.
+     *
+     * @return the journal, or null if the file could not be opened
+     */
+    @Nullable
+    public static UndoJournal enable(@NonNull Context context) {
+        UndoJournal journal = sInstance;
+        if (journal != null)
+            return journal;
+        synchronized (UndoJournal.class) {
+            if (sInstance == null) {
+                try {
+                    sInstance = new UndoJournal(new File(context.getFilesDir(), FILE_NAME));
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot open undo journal", e);
+                }
+            }
+            return sInstance;
+        }
+    }
+
+    @Nullable
+    static UndoJournal get() {
+        return sInstance;
+    }
+
+    /**
+     * Deliver the tokens a previous process left without an outcome, at most once.
+     * Call it when no undobar state is being restored, e.g. when savedInstanceState is null,
+     * otherwise restored undobars are replayed too.
+     *
+     * @param classLoader loader of the token classes
+     */
+    public void replay(@NonNull UndoBarController.AdvancedUndoListener listener, @Nullable ClassLoader classLoader) {
+        final Parcelable[] tokens;
+        synchronized (this) {
+            if (recovered.isEmpty())
+                return;
+            tokens = new Parcelable[recovered.size()];
+            int count = 0;
+            for (Iterator<Map.Entry<Long, byte[]>> it = recovered.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<Long, byte[]> entry = it.next();
+                it.remove();
+                final Parcelable token = unmarshall(entry.getValue(), classLoader);
+                if (token != null)
+                    tokens[count++] = token;
+                resolve(entry.getKey(), HIDDEN);
+            }
+            if (count < tokens.length) {
+                final Parcelable[] read = new Parcelable[count];
+                System.arraycopy(tokens, 0, read, 0, count);
+                listener.onClear(read);
+                return;
+            }
+        }
+        listener.onClear(tokens);
+    }
+
+    /**
+     * Journal a shown token, from any thread.
+     *
+     * @return its id, 0 if it could not be journaled
+     */
+    synchronized long enqueued(@NonNull Parcelable token) {
+        final Parcel parcel = Parcel.obtain();
+        final byte[] data;
+        try {
+            parcel.writeParcelable(token, 0);
+            data = parcel.marshall();
+        } catch (RuntimeException e) {
+            // e.g. a token holding file descriptors
+            Log.w(TAG, "Cannot journal token " + token, e);
+            return 0;
+        } finally {
+            parcel.recycle();
+        }
+        final long id = nextId++;
+        if (!append(ENQUEUED, id, data))
+            return 0;
+        outstanding.put(id, data);
+        return id;
+    }
+
+    synchronized void undone(long id) {
+        resolve(id, UNDONE);
+    }
+
+    synchronized void hidden(long id) {
+        resolve(id, HIDDEN);
+    }
+
+    private void resolve(long id, byte type) {
+        if (outstanding.remove(id) == null)
+            return;
+        recovered.remove(id);
+        if (outstanding.isEmpty()) {
+            // Nothing left to recover, start over
+            reset();
+        } else {
+            append(type, id, null);
+        }
+    }
+
+    private boolean append(byte type, long id, byte[] data) {
+        final int length = RECORD_HEADER_SIZE + (data != null ? data.length : 0);
+        if (buffer.position() + length + 4 > buffer.capacity()) {
+            try {
+                compact(length);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot compact undo journal", e);
+                return false;
+            }
+        }
+        write(type, id, data);
+        return true;
+    }
+
+    /**
+     * Write a record, terminated by a zero length. The record length goes last,
+     * so a reader never sees a torn record as valid.
+     */
+    private void write(byte type, long id, byte[] data) {
+        final int start = buffer.position();
+        final int length = RECORD_HEADER_SIZE + (data != null ? data.length : 0);
+        buffer.putInt(start + length, 0);
+        buffer.position(start + 8);
+        buffer.put(type);
+        buffer.putLong(id);
+        if (data != null)
+            buffer.put(data);
+        buffer.putInt(start + 4, checksum(type, id, data));
+        buffer.putInt(start, length);
+        buffer.position(start + length);
+    }
+
+    private void reset() {
+        buffer.putInt(HEADER_SIZE, 0);
+        buffer.position(HEADER_SIZE);
+    }
+
+    /**
+     * Rewrite the outstanding tokens into a new file, large enough for them and the pending record
+     */
+    private void compact(int pending) throws IOException {
+        int needed = HEADER_SIZE + pending + 4;
+        for (byte[] data : outstanding.values()) {
+            needed += RECORD_HEADER_SIZE + data.length;
+        }
+        int capacity = buffer.capacity();
+        while (needed > capacity / 2) {
+            capacity *= 2;
+        }
+        final File tmp = new File(file.getPath() + ".tmp");
+        buffer = map(tmp, capacity, true);
+        for (Map.Entry<Long, byte[]> entry : outstanding.entrySet()) {
+            write(ENQUEUED, entry.getKey(), entry.getValue());
+        }
+        buffer.force();
+        if (!tmp.renameTo(file))
+            throw new IOException("Cannot replace " + file);
+    }
+
+    private void load() throws IOException {
+        final boolean exists = file.length() >= HEADER_SIZE + 4;
+        buffer = map(file, exists ? (int) file.length() : INITIAL_CAPACITY, !exists);
+        if (buffer.getInt(0) != MAGIC) {
+            // Unknown or corrupt, start over
+            buffer = map(file, INITIAL_CAPACITY, true);
+            return;
+        }
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length < RECORD_HEADER_SIZE || position + length + 4 > buffer.capacity())
+                break;
+            final byte type = buffer.get(position + 8);
+            final long id = buffer.getLong(position + 9);
+            final byte[] data = new byte[length - RECORD_HEADER_SIZE];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(data);
+            if (buffer.getInt(position + 4) != checksum(type, id, data))
+                break;
+            if (type == ENQUEUED)
+                outstanding.put(id, data);
+            else
+                outstanding.remove(id);
+            nextId = Math.max(nextId, id + 1);
+            position += length;
+        }
+        recovered.putAll(outstanding);
+        // Drop whatever follows the last valid record
+        buffer.putInt(position, 0);
+        buffer.position(position);
+    }
+
+    private int checksum(byte type, long id, byte[] data) {
+        crc.reset();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (id >>> shift));
+        }
+        if (data != null)
+            crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(File file, int capacity, boolean create) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (create)
+                raf.setLength(0);
+            raf.setLength(capacity);
+            // The mapping stays valid once the file is closed
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.order(ByteOrder.nativeOrder());
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, 0);
+                buffer.putInt(HEADER_SIZE, 0);
+            }
+            buffer.position(HEADER_SIZE);
+            return buffer;
+        }
+    }
+
+    private static Parcelable unmarshall(byte[] data, ClassLoader classLoader) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(classLoader);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot read journaled token", e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
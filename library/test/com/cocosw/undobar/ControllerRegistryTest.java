@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class ControllerRegistryTest {
+
+    private static final int CONTAINER = 0x7f0fffff;
+
+    private ActivityController<Activity> controller;
+    private Activity activity;
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        controller = Robolectric.buildActivity(Activity.class).setup();
+        activity = controller.get();
+    }
+
+    @Test
+    public void showRegistersItsUndobar() {
+        assertNull(ControllerRegistry.get(activity, android.R.id.content));
+        final UndoBarController bar = show(android.R.id.content);
+        assertSame(bar, ControllerRegistry.get(activity, android.R.id.content));
+        assertSame(bar, ControllerRegistry.any(activity));
+        assertSame(bar, show(android.R.id.content));
+    }
+
+    @Test
+    public void eachContainerHasItsOwnUndobar() {
+        final FrameLayout container = new FrameLayout(activity);
+        container.setId(CONTAINER);
+        ((ViewGroup) activity.findViewById(android.R.id.content)).addView(container);
+        final UndoBarController content = show(android.R.id.content);
+        final UndoBarController inner = show(CONTAINER);
+        assertNotSame(content, inner);
+        assertSame(container, inner.getParent());
+        assertSame(inner, ControllerRegistry.get(activity, CONTAINER));
+        assertSame(content, ControllerRegistry.get(activity, android.R.id.content));
+    }
+
+    @Test
+    public void undobarRemovedByTheAppIsForgotten() {
+        final UndoBarController bar = show(android.R.id.content);
+        ((ViewGroup) bar.getParent()).removeView(bar);
+        assertNull(ControllerRegistry.get(activity, android.R.id.content));
+        assertNull(ControllerRegistry.any(activity));
+        final UndoBarController next = show(android.R.id.content);
+        assertNotNull(next.getParent());
+        assertSame(next, ControllerRegistry.get(activity, android.R.id.content));
+    }
+
+    @Test
+    public void undobarDeclaredInTheLayoutIsUsed() {
+        final ViewGroup content = activity.findViewById(android.R.id.content);
+        final UndoBarController declared = new UndoBarController(activity, null);
+        content.addView(declared);
+        assertSame(declared, show(android.R.id.content));
+        assertSame(declared, ControllerRegistry.get(activity, android.R.id.content));
+    }
+
+    @Test
+    public void destroyedActivityIsForgottenAndItsIdleUndobarPooled() {
+        final UndoBarController bar = show(android.R.id.content);
+        bar.findViewById(R.id.undobar_button).callOnClick();
+        controller.pause().stop().destroy();
+        assertNull(ControllerRegistry.get(activity, android.R.id.content));
+        assertNull(bar.getParent());
+
+        final Activity next = Robolectric.buildActivity(Activity.class).setup().get();
+        assertSame(bar, new UndoBarController.UndoBar(next).message("Deleted").show(false));
+    }
+
+    private UndoBarController show(int container) {
+        return new UndoBarController.UndoBar(activity).message("Deleted").setContainer(container).show(false);
+    }
+}
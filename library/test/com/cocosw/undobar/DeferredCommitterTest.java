@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeferredCommitterTest {
+
+    // Operations are "key:action"
+    private final List<List<String>> batches = new ArrayList<>();
+    private final DeferredCommitter.Store<String> store = new DeferredCommitter.Store<String>() {
+        @Override
+        public Object keyOf(@NonNull String operation) {
+            final String key = operation.substring(0, operation.indexOf(':'));
+            return key.isEmpty() ? null : key;
+        }
+
+        @Override
+        public String compact(@NonNull String earlier, @NonNull String later) {
+            if (earlier.endsWith(":insert") && later.endsWith(":delete"))
+                return null;
+            return later;
+        }
+
+        @Override
+        public void commit(@NonNull List<String> batch) {
+            batches.add(batch);
+        }
+    };
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void compactedOperationKeepsItsStagingOrder() {
+        final DeferredCommitter<String> committer = new DeferredCommitter<>(store, direct);
+        committer.stage("a:update1");
+        committer.stage("b:update");
+        committer.stage("a:update2");
+        committer.stage("c:update");
+        committer.flush();
+        assertEquals(Arrays.asList(Arrays.asList("a:update2", "b:update", "c:update")), batches);
+    }
+
+    @Test
+    public void operationsCompactedToNothingAreNotCommitted() {
+        final DeferredCommitter<String> committer = new DeferredCommitter<>(store, direct);
+        committer.stage("a:insert");
+        committer.stage("b:update");
+        committer.stage("a:delete");
+        committer.stage("a:insert");
+        committer.flush();
+        assertEquals(Arrays.asList(Arrays.asList("b:update", "a:insert")), batches);
+    }
+
+    @Test
+    public void operationsWithoutKeyAreNeverCompacted() {
+        final DeferredCommitter<String> committer = new DeferredCommitter<>(store, direct);
+        committer.stage(":first");
+        committer.stage(":second");
+        committer.flush();
+        assertEquals(Arrays.asList(Arrays.asList(":first", ":second")), batches);
+    }
+
+    @Test
+    public void fullBatchIsCommittedAtOnce() {
+        final DeferredCommitter<String> committer = new DeferredCommitter<>(store, direct, 2, 1000);
+        committer.stage("a:update");
+        committer.stage("b:update");
+        committer.stage("c:update");
+        assertEquals(Arrays.asList(Arrays.asList("a:update", "b:update")), batches);
+        committer.flush();
+        assertEquals(Arrays.asList("c:update"), batches.get(1));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Undobars hide once their duration is up, also after an earlier test left a hide pending on a looper that
+ * is gone now, as Robolectric resets the main looper between tests.
+ */
+@RunWith(RobolectricTestRunner.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class HideSchedulerTest {
+
+    private static final long DURATION = 2000;
+
+    private Activity activity;
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    @Test
+    public void a_hidesOnceTheDurationIsUp() {
+        final UndoBarController bar = show("First");
+        idleFor(DURATION / 2);
+        assertEquals(View.VISIBLE, bar.getVisibility());
+        idleFor(DURATION);
+        assertEquals(View.GONE, bar.getVisibility());
+    }
+
+    @Test
+    public void b_endsWithAHidePending() {
+        final UndoBarController bar = show("Pending");
+        idleFor(DURATION / 2);
+        assertEquals(View.VISIBLE, bar.getVisibility());
+    }
+
+    @Test
+    public void c_hidesAfterATestLeftAHidePending() {
+        a_hidesOnceTheDurationIsUp();
+    }
+
+    @Test
+    public void d_laterDeadlineDoesNotDelayAnEarlierOne() {
+        final UndoBarController bar = show("First");
+        final Activity other = Robolectric.buildActivity(Activity.class).setup().get();
+        final UndoBarController longer = new UndoBarController.UndoBar(other).message("Second")
+                .style(UndoBarController.UNDOSTYLE).duration(3 * DURATION).show(false);
+        idleFor(DURATION + 100);
+        assertEquals(View.GONE, bar.getVisibility());
+        assertEquals(View.VISIBLE, longer.getVisibility());
+        idleFor(2 * DURATION);
+        assertEquals(View.GONE, longer.getVisibility());
+    }
+
+    private UndoBarController show(String text) {
+        return new UndoBarController.UndoBar(activity).message(text).style(UndoBarController.UNDOSTYLE)
+                .duration(DURATION).show(false);
+    }
+
+    private static void idleFor(long millis) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(millis));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.util.TypedValue;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Messages are measured on the executor only while they wait, and a measurement is only used when it still
+ * matches the message view. Needs Android 9, below that messages are never precomputed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PrecomputedMessageTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+    };
+
+    private Activity activity;
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    @Test
+    public void onlyWaitingMessagesArePrecomputed() {
+        show("First");
+        assertTrue(tasks.isEmpty());
+        show("Second");
+        show("Third");
+        assertEquals(2, tasks.size());
+    }
+
+    @Test
+    public void precomputedMessageShowsItsText() {
+        final UndoBarController bar = show("First");
+        show("Second");
+        runTasks();
+        next(bar);
+        assertEquals("Second", message(bar).getText().toString());
+    }
+
+    @Test
+    public void unfinishedMeasurementIsNotWaitedFor() {
+        final UndoBarController bar = show("First");
+        show("Second");
+        next(bar);
+        assertEquals("Second", message(bar).getText().toString());
+        // Finishing late changes nothing
+        runTasks();
+        assertEquals("Second", message(bar).getText().toString());
+    }
+
+    @Test
+    public void measurementForOtherTextParamsIsDropped() {
+        final UndoBarController bar = show("First");
+        show("Second");
+        runTasks();
+        // A TextView rejects precomputed text measured with other params
+        message(bar).setTextSize(TypedValue.COMPLEX_UNIT_SP, 40);
+        next(bar);
+        assertEquals("Second", message(bar).getText().toString());
+    }
+
+    private UndoBarController show(String text) {
+        return new UndoBarController.UndoBar(activity).message(text).style(UndoBarController.UNDOSTYLE)
+                .precompute(executor).show(false);
+    }
+
+    private void runTasks() {
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        tasks.clear();
+    }
+
+    private static TextView message(UndoBarController bar) {
+        return bar.findViewById(R.id.undobar_message);
+    }
+
+    private static void next(UndoBarController bar) {
+        bar.findViewById(R.id.undobar_button).callOnClick();
+    }
+}
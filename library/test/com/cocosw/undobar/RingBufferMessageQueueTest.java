@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RingBufferMessageQueueTest {
+
+    private static final MessageQueue.Weigher<Integer> VALUE_WEIGHER = new MessageQueue.Weigher<Integer>() {
+        @Override
+        public long weigh(Integer e) {
+            return e;
+        }
+    };
+
+    private final List<Integer> dropped = new ArrayList<>();
+    private final MessageQueue.OnDropListener<Integer> dropListener = new MessageQueue.OnDropListener<Integer>() {
+        @Override
+        public void onDropped(Integer e) {
+            dropped.add(e);
+        }
+    };
+
+    private RingBufferMessageQueue<Integer> queue(int capacity, OverflowPolicy policy, long maxBytes) {
+        return new RingBufferMessageQueue<>(capacity, policy, maxBytes, VALUE_WEIGHER, dropListener);
+    }
+
+    private static List<Integer> contents(MessageQueue<Integer> queue) {
+        final List<Integer> contents = new ArrayList<>();
+        for (int i = 0; i < queue.size(); i++) {
+            contents.add(queue.get(i));
+        }
+        return contents;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        final List<Integer> range = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    @Test
+    public void keepsOrderWhenWrappingAround() {
+        final RingBufferMessageQueue<Integer> queue = queue(4, OverflowPolicy.DROP_OLDEST, 0);
+        int next = 1;
+        int expected = 1;
+        for (int round = 0; round < 10; round++) {
+            while (queue.size() < 3) {
+                queue.offer(next++);
+            }
+            assertEquals(Integer.valueOf(expected++), queue.poll());
+            assertEquals(Integer.valueOf(expected++), queue.poll());
+        }
+        assertEquals(range(expected, next - 1), contents(queue));
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void growsWhileWrappedAround() {
+        final RingBufferMessageQueue<Integer> queue = queue(0, OverflowPolicy.DROP_OLDEST, 0);
+        for (int i = 1; i <= 12; i++) {
+            queue.offer(i);
+        }
+        for (int i = 1; i <= 8; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        // Tail wraps past the end of the initial array, then the array doubles twice
+        for (int i = 13; i <= 60; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(range(9, 60), contents(queue));
+        for (int i = 9; i <= 60; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewest() {
+        final RingBufferMessageQueue<Integer> queue = queue(4, OverflowPolicy.DROP_OLDEST, 0);
+        for (int i = 1; i <= 6; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(range(3, 6), contents(queue));
+        assertEquals(range(1, 2), dropped);
+    }
+
+    @Test
+    public void dropNewestRejectsTheNewOne() {
+        final RingBufferMessageQueue<Integer> queue = queue(4, OverflowPolicy.DROP_NEWEST, 0);
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(5));
+        assertFalse(queue.offer(6));
+        assertEquals(range(1, 4), contents(queue));
+        assertEquals(range(5, 6), dropped);
+    }
+
+    @Test
+    public void collapseKeepsOnlyTheLatest() {
+        final RingBufferMessageQueue<Integer> queue = queue(4, OverflowPolicy.COLLAPSE_INTO_LATEST, 0);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(range(5, 5), contents(queue));
+        assertEquals(range(1, 4), dropped);
+    }
+
+    @Test
+    public void budgetDropsOldestUntilTheNewOneFits() {
+        final RingBufferMessageQueue<Integer> queue = queue(0, OverflowPolicy.DROP_OLDEST, 10);
+        queue.offer(4);
+        queue.offer(3);
+        queue.offer(2);
+        assertEquals(9, queue.bytes());
+        queue.offer(6);
+        assertEquals(List.of(2, 6), contents(queue));
+        assertEquals(8, queue.bytes());
+        assertEquals(List.of(4, 3), dropped);
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(6, queue.bytes());
+    }
+
+    @Test
+    public void budgetWithDropNewestAndCollapse() {
+        final RingBufferMessageQueue<Integer> newest = queue(0, OverflowPolicy.DROP_NEWEST, 10);
+        newest.offer(6);
+        assertFalse(newest.offer(5));
+        assertEquals(List.of(6), contents(newest));
+        assertEquals(6, newest.bytes());
+
+        dropped.clear();
+        final RingBufferMessageQueue<Integer> collapse = queue(0, OverflowPolicy.COLLAPSE_INTO_LATEST, 10);
+        collapse.offer(2);
+        collapse.offer(3);
+        collapse.offer(7);
+        assertEquals(List.of(7), contents(collapse));
+        assertEquals(7, collapse.bytes());
+        assertEquals(List.of(2, 3), dropped);
+    }
+
+    @Test
+    public void oversizedEntryIsAcceptedIntoAnEmptyQueue() {
+        final RingBufferMessageQueue<Integer> queue = queue(0, OverflowPolicy.DROP_OLDEST, 10);
+        queue.offer(3);
+        assertTrue(queue.offer(25));
+        assertEquals(List.of(25), contents(queue));
+        assertEquals(25, queue.bytes());
+        assertEquals(List.of(3), dropped);
+    }
+
+    @Test
+    public void capacityAndBudgetTogether() {
+        final RingBufferMessageQueue<Integer> queue = queue(3, OverflowPolicy.DROP_OLDEST, 100);
+        for (int i = 1; i <= 5; i++) {
+            queue.offer(i);
+        }
+        assertEquals(range(3, 5), contents(queue));
+        assertEquals(12, queue.bytes());
+    }
+
+    @Test
+    public void weigherIsNotCalledWithoutBudget() {
+        final RingBufferMessageQueue<Integer> queue = new RingBufferMessageQueue<>(0, OverflowPolicy.DROP_OLDEST, 0,
+                new MessageQueue.Weigher<Integer>() {
+                    @Override
+                    public long weigh(Integer e) {
+                        throw new AssertionError("weighed without a budget");
+                    }
+                }, null);
+        queue.offer(1);
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    public void clearDoesNotNotify() {
+        final RingBufferMessageQueue<Integer> queue = queue(4, OverflowPolicy.DROP_OLDEST, 100);
+        queue.offer(1);
+        queue.offer(2);
+        queue.poll();
+        queue.offer(3);
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.bytes());
+        assertNull(queue.peek());
+        assertTrue(dropped.isEmpty());
+        queue.offer(4);
+        assertEquals(List.of(4), contents(queue));
+    }
+
+    @Test
+    public void getOutOfRange() {
+        final RingBufferMessageQueue<Integer> queue = queue(0, OverflowPolicy.DROP_OLDEST, 0);
+        queue.offer(1);
+        try {
+            queue.get(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void budgetNeedsWeigher() {
+        new RingBufferMessageQueue<Integer>(0, OverflowPolicy.DROP_OLDEST, 10, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCapacity() {
+        new RingBufferMessageQueue<Integer>(-1, OverflowPolicy.DROP_OLDEST, 0, null, null);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubmissionQueueTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 100_000;
+
+    @Test
+    public void pollsInOfferOrder() {
+        final SubmissionQueue<Integer> queue = new SubmissionQueue<>();
+        assertNull(queue.poll());
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void onlyTheFirstOfferSchedulesADrain() {
+        final SubmissionQueue<Integer> queue = new SubmissionQueue<>();
+        assertTrue(queue.offer(1));
+        assertFalse(queue.offer(2));
+        queue.beginDrain();
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertTrue(queue.offer(3));
+        assertFalse(queue.offer(4));
+    }
+
+    /**
+     * Producers race the consumer, which only drains when an offer asks for it, as the main thread does.
+     * Every entry must arrive exactly once, in each producer's order, with no drain request lost.
+     */
+    @Test(timeout = 60_000)
+    public void concurrentProducersDrainedOnRequest() throws Throwable {
+        final SubmissionQueue<long[]> queue = new SubmissionQueue<>();
+        final Semaphore drainRequests = new Semaphore(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < PER_PRODUCER; i++) {
+                        if (queue.offer(new long[]{producer, i}))
+                            drainRequests.release();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            producers[p].start();
+        }
+        final int[] next = new int[PRODUCERS];
+        int received = 0;
+        start.countDown();
+        while (received < PRODUCERS * PER_PRODUCER) {
+            assertTrue("drain request lost with " + received + " received",
+                    drainRequests.tryAcquire(10, TimeUnit.SECONDS));
+            queue.beginDrain();
+            long[] entry;
+            while ((entry = queue.poll()) != null) {
+                final int producer = (int) entry[0];
+                assertEquals(next[producer]++, entry[1]);
+                received++;
+            }
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        if (failure.get() != null)
+            throw failure.get();
+        assertNull(queue.poll());
+        for (int count : next) {
+            assertEquals(PER_PRODUCER, count);
+        }
+    }
+}
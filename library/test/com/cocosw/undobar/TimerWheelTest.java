@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private static final int SLOTS = 8;
+    private static final long TICK = 10;
+    // One revolution of the wheel
+    private static final long SPAN = SLOTS * TICK;
+
+    private final TimerWheel wheel = new TimerWheel(SLOTS, TICK);
+    private final List<String> fired = new ArrayList<>();
+
+    private TimerWheel.Timeout timeout(final String name) {
+        return new TimerWheel.Timeout(new Runnable() {
+            @Override
+            public void run() {
+                fired.add(name);
+            }
+        });
+    }
+
+    @Test
+    public void firesOnTheFirstTickAtOrAfterTheDeadline() {
+        final TimerWheel.Timeout a = timeout("a");
+        wheel.schedule(a, 0, 25);
+        assertTrue(a.isScheduled());
+        assertEquals(0, wheel.advance(29));
+        assertEquals(1, wheel.advance(30));
+        assertEquals(List.of("a"), fired);
+        assertFalse(a.isScheduled());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void deadlinesBeyondOneRevolutionWaitForTheirTurn() {
+        final TimerWheel.Timeout far = timeout("far");
+        final TimerWheel.Timeout near = timeout("near");
+        wheel.schedule(far, 0, 3 * SPAN + 15);
+        // Shares a slot with far
+        wheel.schedule(near, 0, 15);
+        for (long now = 0; now < 3 * SPAN + 2 * TICK; now += TICK / 2) {
+            wheel.advance(now);
+            assertFalse(fired.contains("far"));
+        }
+        assertEquals(List.of("near"), fired);
+        wheel.advance(3 * SPAN + 2 * TICK);
+        assertEquals(List.of("near", "far"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void longGapFiresEverythingDueOnce() {
+        for (int i = 0; i < 20; i++) {
+            wheel.schedule(timeout("t" + i), 0, i * 7);
+        }
+        wheel.schedule(timeout("later"), 0, 10 * SPAN);
+        assertEquals(20, wheel.advance(5 * SPAN));
+        assertEquals(0, wheel.advance(5 * SPAN + TICK));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(10 * SPAN));
+        assertEquals(21, fired.size());
+    }
+
+    @Test
+    public void cancelDuringAdvance() {
+        final TimerWheel.Timeout second = timeout("second");
+        final TimerWheel.Timeout first = new TimerWheel.Timeout(new Runnable() {
+            @Override
+            public void run() {
+                fired.add("first");
+                wheel.cancel(second);
+            }
+        });
+        // Both expire in the same advance, whichever runs first cancels the other
+        wheel.schedule(second, 0, 12);
+        wheel.schedule(first, 0, 11);
+        final TimerWheel.Timeout other = timeout("other");
+        wheel.schedule(other, 0, 30);
+        wheel.advance(20);
+        assertFalse(second.isScheduled());
+        assertEquals(1, wheel.size());
+        assertTrue(fired.equals(List.of("first")) || fired.equals(List.of("second", "first")));
+        wheel.advance(30);
+        assertTrue(fired.contains("other"));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelOfALaterTimeoutDuringAdvance() {
+        final TimerWheel.Timeout later = timeout("later");
+        final TimerWheel.Timeout canceller = new TimerWheel.Timeout(new Runnable() {
+            @Override
+            public void run() {
+                wheel.cancel(later);
+            }
+        });
+        wheel.schedule(later, 0, 2 * SPAN);
+        wheel.schedule(canceller, 0, TICK);
+        assertEquals(1, wheel.advance(TICK));
+        assertEquals(0, wheel.size());
+        assertEquals(-1, wheel.nextDelay(TICK));
+        assertEquals(0, wheel.advance(3 * SPAN));
+        assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    public void taskCanRescheduleItself() {
+        final int[] runs = new int[1];
+        final TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+        final long[] now = new long[1];
+        self[0] = new TimerWheel.Timeout(new Runnable() {
+            @Override
+            public void run() {
+                if (++runs[0] < 3)
+                    wheel.schedule(self[0], now[0], 20);
+            }
+        });
+        wheel.schedule(self[0], 0, 20);
+        for (now[0] = 0; now[0] <= 200; now[0] += 5) {
+            wheel.advance(now[0]);
+        }
+        assertEquals(3, runs[0]);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void schedulingAgainReplacesTheDeadline() {
+        final TimerWheel.Timeout a = timeout("a");
+        wheel.schedule(a, 0, 10);
+        wheel.schedule(a, 0, 50);
+        assertEquals(1, wheel.size());
+        assertEquals(0, wheel.advance(40));
+        assertEquals(1, wheel.advance(50));
+    }
+
+    @Test
+    public void nextDelay() {
+        assertEquals(-1, wheel.nextDelay(0));
+        wheel.schedule(timeout("a"), 0, 35);
+        assertEquals(40, wheel.nextDelay(0));
+        wheel.advance(40);
+        assertEquals(-1, wheel.nextDelay(40));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slotsMustBeAPowerOfTwo() {
+        new TimerWheel(6, TICK);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TokenHandleTest {
+
+    @Test
+    public void resolvesUntilReleased() {
+        final Object payload = new Object();
+        final TokenHandle handle = TokenHandle.register(payload);
+        assertTrue(handle.isFromThisProcess());
+        assertSame(payload, handle.get());
+        handle.release();
+        assertNull(handle.get());
+    }
+
+    @Test
+    public void eachRegistrationGetsItsOwnHandle() {
+        final TokenHandle first = TokenHandle.register("first");
+        final TokenHandle second = TokenHandle.register("second");
+        assertNotEquals(first, second);
+        assertEquals("first", first.get());
+        assertEquals("second", second.get());
+        first.release();
+        second.release();
+    }
+
+    @Test
+    public void parcelledHandleResolvesInTheSameProcess() {
+        final TokenHandle handle = TokenHandle.register("payload");
+        final Parcel parcel = Parcel.obtain();
+        try {
+            handle.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final TokenHandle restored = TokenHandle.CREATOR.createFromParcel(parcel);
+            assertEquals(handle, restored);
+            assertEquals("payload", restored.get());
+        } finally {
+            parcel.recycle();
+            handle.release();
+        }
+    }
+
+    @Test
+    public void handleOfAnotherProcessDoesNotResolve() {
+        final TokenHandle handle = TokenHandle.register("payload");
+        // Same number under another epoch, as restored after process death
+        final TokenHandle stale = new TokenHandle(handle.handle() ^ 0x1234567800000000L);
+        assertFalse(stale.isFromThisProcess());
+        assertNull(stale.get());
+        assertEquals("payload", handle.get());
+        handle.release();
+    }
+}
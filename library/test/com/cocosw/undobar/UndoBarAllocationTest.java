@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.widget.TextView;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Once warm, showing and hiding an undobar must not allocate: no Message, lambda, drawable or Parcel per cycle.
+ * <p>
+ * Robolectric's view shadows allocate on every layout request, so a cycle is measured against the same view
+ * shown and hidden directly, taking the quietest of a few rounds of each. The undobar may add less than a byte
+ * per cycle to that, which leaves room for a one-off allocation in the sandbox but not for any object
+ * allocated per cycle.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UndoBarAllocationTest {
+
+    private static final int WARM_UP = 200;
+    private static final int CYCLES = 1000;
+    private static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Activity activity;
+    private UndoBarController.UndoBar builder;
+    private int undone;
+
+    private final UndoBarController.UndoListener listener = new UndoBarController.UndoListener() {
+        @Override
+        public void onUndo(android.os.Parcelable token) {
+            undone++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        UndoBarController.setTracer(null);
+        UndoBarController.setMetrics(null);
+        ControllerPool.clear();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+        builder = new UndoBarController.UndoBar(activity);
+    }
+
+    @After
+    public void tearDown() {
+        UndoBarController.setTracer(SystemTracer.INSTANCE);
+    }
+
+    @Test
+    public void showAndHideAllocateNothingOnceWarm() {
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final UndoBarController bar = cycle();
+        final View button = bar.findViewById(R.id.undobar_button);
+        for (int i = 0; i < WARM_UP; i++) {
+            cycle();
+            toggle(bar);
+        }
+        final long thread = Thread.currentThread().getId();
+        long framework = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CYCLES; i++) {
+                toggle(bar);
+            }
+            framework = Math.min(framework, threads.getThreadAllocatedBytes(thread) - before);
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CYCLES; i++) {
+                builder.message("Deleted").listener(listener).show(false);
+                button.callOnClick();
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before);
+        }
+        assertEquals(1 + WARM_UP + ROUNDS * CYCLES, undone);
+        assertEquals(View.GONE, bar.getVisibility());
+        assertTrue("bytes allocated by " + CYCLES + " cycles beyond the view shadows: " + (allocated - framework),
+                allocated - framework < CYCLES);
+    }
+
+    @Test
+    public void switchingStylesReusesTheButtonIcons() {
+        final Drawable undo = icon(UndoBarController.UNDOSTYLE);
+        final Drawable retry = icon(UndoBarController.RETRYSTYLE);
+        assertNotNull(undo);
+        assertNotNull(retry);
+        for (int i = 0; i < 3; i++) {
+            assertSame(undo, icon(UndoBarController.UNDOSTYLE));
+            assertSame(retry, icon(UndoBarController.RETRYSTYLE));
+        }
+    }
+
+    private Drawable icon(UndoBarStyle style) {
+        final UndoBarController bar = builder.message("Deleted").style(style).listener(listener).show(false);
+        final TextView button = bar.findViewById(R.id.undobar_button);
+        final Drawable icon = button.getCompoundDrawables()[0];
+        button.callOnClick();
+        return icon;
+    }
+
+    private UndoBarController cycle() {
+        final UndoBarController bar = builder.message("Deleted").listener(listener).show(false);
+        bar.findViewById(R.id.undobar_button).callOnClick();
+        return bar;
+    }
+
+    /**
+     * The layout requests of a cycle without the undobar
+     */
+    private static void toggle(View bar) {
+        bar.setVisibility(View.VISIBLE);
+        bar.setVisibility(View.GONE);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.content.Context;
+import android.text.SpannableString;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Back-to-back messages of the same style must not request a layout of the undobar.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UndoBarBinderTest {
+
+    private CountingLayout root;
+    private CountingLayout bar;
+    private CountingTextView message;
+    private CountingTextView button;
+    private CountingView divider;
+    private UndoBarBinder binder;
+
+    @Before
+    public void setUp() {
+        final Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        root = new CountingLayout(activity);
+        bar = new CountingLayout(activity);
+        message = new CountingTextView(activity);
+        button = new CountingTextView(activity);
+        divider = new CountingView(activity);
+        bar.addView(message, wrap());
+        bar.addView(divider, wrap());
+        bar.addView(button, wrap());
+        root.addView(bar, wrap());
+        activity.setContentView(root);
+        binder = new UndoBarBinder(root, bar, message, button, divider);
+    }
+
+    @Test
+    public void sameStyleTwiceRequestsNoLayout() {
+        bind("Deleted", UndoBarController.UNDOSTYLE);
+        layout();
+        bind("Deleted", UndoBarController.UNDOSTYLE);
+        assertEquals(0, requests());
+    }
+
+    @Test
+    public void newStyleRequestsLayout() {
+        bind("Deleted", UndoBarController.UNDOSTYLE);
+        layout();
+        bind("Deleted", UndoBarController.RETRYSTYLE);
+        assertTrue(button.requests > 0);
+        layout();
+        bind("Deleted", UndoBarController.MESSAGESTYLE);
+        assertEquals(View.GONE, button.getVisibility());
+        assertEquals(View.GONE, divider.getVisibility());
+        assertTrue(requests() > 0);
+    }
+
+    @Test
+    public void equalPlainTextIsNotBoundAgain() {
+        binder.bindText("Deleted");
+        layout();
+        binder.bindText(new StringBuilder("Deleted"));
+        assertEquals(0, message.requests);
+        binder.bindText("Archived");
+        assertEquals("Archived", message.getText().toString());
+    }
+
+    @Test
+    public void styledTextIsAlwaysBound() {
+        final SpannableString text = new SpannableString("Deleted");
+        binder.bindText("Deleted");
+        binder.bindText(text);
+        assertEquals(text.toString(), message.getText().toString());
+        final SpannableString other = new SpannableString("Archived");
+        binder.bindText(other);
+        assertEquals("Archived", message.getText().toString());
+    }
+
+    @Test
+    public void samePaddingAndBackgroundRequestNoLayout() {
+        binder.bindBackground(R.drawable.undobar);
+        binder.bindBottomPadding(48);
+        layout();
+        binder.bindBackground(R.drawable.undobar);
+        binder.bindBottomPadding(48);
+        assertEquals(0, requests());
+        binder.bindBottomPadding(0);
+        assertEquals(0, root.getPaddingBottom());
+        assertTrue(root.requests > 0);
+    }
+
+    /**
+     * Binds a message as the undobar shows it
+     */
+    private void bind(CharSequence text, UndoBarStyle style) {
+        binder.bindText(text);
+        binder.bindButton(style, false, true);
+        if (style.bgRes > 0)
+            binder.bindBackground(style.bgRes);
+    }
+
+    /**
+     * Lays the views out and forgets their layout requests
+     */
+    private void layout() {
+        final int spec = View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.AT_MOST);
+        root.measure(spec, spec);
+        root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+        root.requests = 0;
+        bar.requests = 0;
+        message.requests = 0;
+        button.requests = 0;
+        divider.requests = 0;
+    }
+
+    private int requests() {
+        return root.requests + bar.requests + message.requests + button.requests + divider.requests;
+    }
+
+    private static ViewGroup.LayoutParams wrap() {
+        return new ViewGroup.LayoutParams(ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+    }
+
+    private static final class CountingLayout extends FrameLayout {
+        private int requests;
+
+        private CountingLayout(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            requests++;
+            super.requestLayout();
+        }
+    }
+
+    private static final class CountingTextView extends TextView {
+        private int requests;
+
+        private CountingTextView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            requests++;
+            super.requestLayout();
+        }
+    }
+
+    private static final class CountingView extends View {
+        private int requests;
+
+        private CountingView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void requestLayout() {
+            requests++;
+            super.requestLayout();
+        }
+    }
+}
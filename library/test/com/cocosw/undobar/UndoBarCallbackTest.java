@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Listeners may clear the undobars from their own callbacks
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UndoBarCallbackTest {
+
+    private final Bundle first = new Bundle();
+    private final Bundle second = new Bundle();
+    private final List<Parcelable> cleared = new ArrayList<>();
+    private final List<Parcelable> undone = new ArrayList<>();
+
+    private Activity activity;
+
+    private final UndoBarController.AdvancedUndoListener clearing = new UndoBarController.AdvancedUndoListener() {
+        @Override
+        public void onUndo(@Nullable Parcelable token) {
+            undone.add(token);
+            new UndoBarController.UndoBar(activity).clear();
+        }
+
+        @Override
+        public void onHide(@Nullable Parcelable token) {
+        }
+
+        @Override
+        public void onClear(@NonNull Parcelable[] token) {
+            cleared.addAll(Arrays.asList(token));
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    @Test
+    public void clearFromUndo() {
+        final UndoBarController bar = show("First", first, clearing);
+        show("Second", second, clearing);
+        button(bar).callOnClick();
+        assertEquals(Arrays.<Parcelable>asList(first), undone);
+        // The undobar being undone is not cleared as well
+        assertEquals(Arrays.<Parcelable>asList(second), cleared);
+        assertEquals(View.GONE, bar.getVisibility());
+    }
+
+    @Test
+    public void messagesAreReusableAfterClearFromUndo() {
+        final UndoBarController bar = show("First", first, clearing);
+        button(bar).callOnClick();
+        final UndoBarController.UndoListener ignore = new UndoBarController.UndoListener() {
+            @Override
+            public void onUndo(@Nullable Parcelable token) {
+            }
+        };
+        show("Third", null, ignore);
+        show("Fourth", null, ignore);
+        final TextView message = bar.findViewById(R.id.undobar_message);
+        assertEquals("Third", message.getText().toString());
+        button(bar).callOnClick();
+        assertEquals("Fourth", message.getText().toString());
+        button(bar).callOnClick();
+        assertEquals(View.GONE, bar.getVisibility());
+    }
+
+    private UndoBarController show(String text, Parcelable token, UndoBarController.UndoListener listener) {
+        final UndoBarController.UndoBar builder = new UndoBarController.UndoBar(activity).message(text)
+                .listener(listener);
+        if (token != null)
+            builder.token(token);
+        return builder.show(false);
+    }
+
+    private static View button(UndoBarController bar) {
+        return bar.findViewById(R.id.undobar_button);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Back-to-back messages of the same style, shown through {@link UndoBarController.UndoBar#show()} on the real
+ * undobar layout, must not request a layout of any of its views.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UndoBarLayoutTest {
+
+    private Activity activity;
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        activity = Robolectric.buildActivity(Activity.class).setup().get();
+    }
+
+    @Test
+    public void nextMessageOfTheSameStyleRequestsNoLayout() {
+        final UndoBarController bar = show("Deleted");
+        show("Deleted");
+        layout();
+        assertFalse(layoutRequested(bar));
+        button(bar).callOnClick();
+        assertEquals(View.VISIBLE, bar.getVisibility());
+        assertFalse(layoutRequested(bar));
+    }
+
+    @Test
+    public void nextMessageOfAnotherStyleIsLaidOut() {
+        final UndoBarController bar = show("Deleted");
+        new UndoBarController.UndoBar(activity).message("Failed").style(UndoBarController.RETRYSTYLE).show(false);
+        layout();
+        button(bar).callOnClick();
+        final TextView button = bar.findViewById(R.id.undobar_button);
+        assertEquals(activity.getString(R.string.retry), button.getText().toString());
+        assertTrue(layoutRequested(bar));
+    }
+
+    @Test
+    public void lastMessageHidesTheUndobar() {
+        final UndoBarController bar = show("Deleted");
+        layout();
+        button(bar).callOnClick();
+        assertEquals(View.GONE, bar.getVisibility());
+    }
+
+    private UndoBarController show(String text) {
+        return new UndoBarController.UndoBar(activity).message(text).style(UndoBarController.UNDOSTYLE).show(false);
+    }
+
+    /**
+     * Runs the pending traversal of the window
+     */
+    private static void layout() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static View button(UndoBarController bar) {
+        return bar.findViewById(R.id.undobar_button);
+    }
+
+    private static boolean layoutRequested(View view) {
+        if (view.isLayoutRequested())
+            return true;
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                if (layoutRequested(group.getChildAt(i)))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
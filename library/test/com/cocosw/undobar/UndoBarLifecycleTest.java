@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 LiaoKai
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cocosw.undobar;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * What happens to the undobars of a destroyed activity
+ */
+@RunWith(RobolectricTestRunner.class)
+public class UndoBarLifecycleTest {
+
+    private final Bundle first = new Bundle();
+    private final Bundle second = new Bundle();
+    private final List<String> events = new ArrayList<>();
+    private final List<Parcelable> cleared = new ArrayList<>();
+
+    private final UndoBarController.AdvancedUndoListener listener = new UndoBarController.AdvancedUndoListener() {
+        @Override
+        public void onUndo(@Nullable Parcelable token) {
+            events.add("undo");
+        }
+
+        @Override
+        public void onHide(@Nullable Parcelable token) {
+            events.add("hide");
+        }
+
+        @Override
+        public void onClear(@NonNull Parcelable[] token) {
+            events.add("clear");
+            cleared.addAll(Arrays.asList(token));
+        }
+    };
+
+    private ActivityController<Activity> controller;
+
+    @Before
+    public void setUp() {
+        ControllerPool.clear();
+        controller = Robolectric.buildActivity(Activity.class).setup();
+    }
+
+    @After
+    public void tearDown() {
+        UndoBarController.setHandOffOnDestroy(false);
+    }
+
+    @Test
+    public void finishingActivityClearsItsUndobars() {
+        show(controller.get(), "First", first);
+        show(controller.get(), "Second", second);
+        controller.get().finish();
+        controller.pause().stop().destroy();
+        shadowOf(controller.get().getMainLooper()).idle();
+        assertEquals(Arrays.asList("clear"), events);
+        assertEquals(Arrays.<Parcelable>asList(first, second), cleared);
+    }
+
+    @Test
+    public void recreatedActivityWithoutSavedStateHidesItsUndobars() {
+        show(controller.get(), "First", first);
+        show(controller.get(), "Second", second);
+        controller.recreate();
+        assertEquals(Arrays.asList("hide", "hide"), events);
+    }
+
+    @Test
+    public void recreatedActivityRestoresItsSavedUndobarsWithoutCallbacks() {
+        final ActivityController<SavingActivity> saving = Robolectric.buildActivity(SavingActivity.class).setup();
+        show(saving.get(), "First", first);
+        show(saving.get(), "Second", second);
+        saving.recreate();
+        assertTrue(events.isEmpty());
+
+        final UndoBarController bar = ControllerRegistry.get(saving.get(), android.R.id.content);
+        final TextView message = bar.findViewById(R.id.undobar_message);
+        assertEquals("First", message.getText().toString());
+        bar.findViewById(R.id.undobar_button).callOnClick();
+        assertEquals("Second", message.getText().toString());
+        // Restored undobars have no listener
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void handedOffWhenRecreatedWithoutSavedState() {
+        UndoBarController.setHandOffOnDestroy(true);
+        show(controller.get(), "First", first);
+        controller.recreate();
+        assertTrue(events.isEmpty());
+        final UndoBarController bar = show(controller.get(), "Second", second);
+        assertEquals("First", ((TextView) bar.findViewById(R.id.undobar_message)).getText().toString());
+    }
+
+    @Test
+    public void handedOffUndobarsShowInTheNextActivity() {
+        UndoBarController.setHandOffOnDestroy(true);
+        show(controller.get(), "First", first);
+        show(controller.get(), "Second", second);
+        controller.get().finish();
+        controller.pause().stop().destroy();
+        assertTrue(events.isEmpty());
+
+        final Activity next = Robolectric.buildActivity(Activity.class).setup().get();
+        final UndoBarController bar = show(next, "Third", new Bundle());
+        final TextView message = bar.findViewById(R.id.undobar_message);
+        final TextView button = bar.findViewById(R.id.undobar_button);
+        assertEquals("First", message.getText().toString());
+        button.callOnClick();
+        assertEquals("Second", message.getText().toString());
+        button.callOnClick();
+        assertEquals("Third", message.getText().toString());
+        // Handed off undobars lost their listener with their activity
+        assertTrue(events.isEmpty());
+        button.callOnClick();
+        assertEquals(Arrays.asList("undo"), events);
+    }
+
+    /**
+     * Saves and restores its undobars as the documentation asks
+     */
+    public static class SavingActivity extends Activity {
+        @Override
+        protected void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            if (savedInstanceState != null)
+                new UndoBarController.UndoBar(this).onRestoreInstanceState(savedInstanceState);
+        }
+
+        @Override
+        protected void onSaveInstanceState(Bundle outState) {
+            super.onSaveInstanceState(outState);
+            new UndoBarController.UndoBar(this).onSaveInstanceState(outState);
+        }
+    }
+
+    private UndoBarController show(Activity activity, String text, Parcelable token) {
+        return new UndoBarController.UndoBar(activity).message(text).token(token).listener(listener).show(false);
+    }
+}